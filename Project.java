@@ -1,19 +1,83 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.*;
 import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 
 class MusicPlayerApp {
     public static void main(String[] args) {
-        MusicSource musicSource = new AudioDbMusicSource();
+        MusicSource musicSource = new MappedMusicSource(MappedCatalog.defaultSnapshot(), new AudioDbMusicSource());
 
         MusicPlayerViewModel viewModel = new MusicPlayerViewModel(musicSource);
         
@@ -38,202 +102,3196 @@ enum PlaybackState {
     PLAYING, PAUSED, STOPPED
 }
 
+// Canonicalizes low-cardinality Song fields at ingestion so a popular artist is held once, not once per track.
+// The pool is bounded: once full, unseen values pass through unpooled instead of growing it further.
+class StringPool {
+    public static final StringPool ARTISTS = new StringPool(1 << 16);
+
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    StringPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = pool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (pool.size() >= maxSize) {
+            return value;
+        }
+        pooled = pool.putIfAbsent(value, value);
+        return pooled == null ? value : pooled;
+    }
+}
+
+
+// Per-field reads for playlists that can answer them without materializing a Song.
+interface SongColumns {
+    String titleAt(int index);
+    String artistAt(int index);
+    int durationAt(int index);
+}
+
 
 // MARK: - Observer Pattern
 
-interface Observer {
-    void update();
-}
+interface Observer {
+    void update();
+}
+
+interface Subject {
+    void addObserver(Observer observer);
+    void removeObserver(Observer observer);
+    void notifyObservers();
+}
+
+// Kinds are declared in delivery order: a playlist replacement is applied before the song, state and time it affects.
+enum PlayerEventKind {
+    PLAYLIST_REPLACED, PLAYLIST_EXTENDED, SONG_CHANGED, STATE_CHANGED, TIME_TICK
+}
+
+// sequence is the version of the PlayerState the event was read from. Transitions publish from whichever thread
+// made them, so events can arrive out of order; an observer drops one older than the last it applied.
+sealed interface PlayerEvent permits PlaylistReplaced, PlaylistExtended, SongChanged, StateChanged, TimeTick {
+    PlayerEventKind kind();
+    long sequence();
+}
+
+record PlaylistReplaced(long sequence, List<Song> songs) implements PlayerEvent {
+    @Override
+    public PlayerEventKind kind() { return PlayerEventKind.PLAYLIST_REPLACED; }
+}
+
+// songs is the whole playlist after the append; it starts with every song of the playlist it extends.
+record PlaylistExtended(long sequence, List<Song> songs) implements PlayerEvent {
+    @Override
+    public PlayerEventKind kind() { return PlayerEventKind.PLAYLIST_EXTENDED; }
+}
+
+record SongChanged(long sequence, Song song, int index) implements PlayerEvent {
+    @Override
+    public PlayerEventKind kind() { return PlayerEventKind.SONG_CHANGED; }
+}
+
+record StateChanged(long sequence, PlaybackState state) implements PlayerEvent {
+    @Override
+    public PlayerEventKind kind() { return PlayerEventKind.STATE_CHANGED; }
+}
+
+record TimeTick(long sequence, int currentTime) implements PlayerEvent {
+    @Override
+    public PlayerEventKind kind() { return PlayerEventKind.TIME_TICK; }
+}
+
+interface PlayerEventObserver {
+    void onEvent(PlayerEvent event);
+}
+
+interface PlayerEventSubject {
+    void addEventObserver(PlayerEventObserver observer, Set<PlayerEventKind> kinds);
+    void removeEventObserver(PlayerEventObserver observer);
+    void publishEvent(PlayerEvent event);
+}
+
+// Membership lives in a set for O(1) add/remove; notification iterates an array snapshot that is rebuilt lazily,
+// at most once per burst of membership changes, so registering N observers costs O(N) rather than O(N^2).
+// The stale flag is set and cleared only under the registry lock, so a change made during a rebuild is never lost.
+class ObserverRegistry<T> {
+    private static final Object[] EMPTY = new Object[0];
+
+    private final Set<T> members = new LinkedHashSet<>();
+    private volatile Object[] snapshot = EMPTY;
+    private volatile boolean stale = false;
+
+    public static <T> Map<PlayerEventKind, ObserverRegistry<T>> byKind() {
+        Map<PlayerEventKind, ObserverRegistry<T>> registries = new EnumMap<>(PlayerEventKind.class);
+        for (PlayerEventKind kind : PlayerEventKind.values()) {
+            registries.put(kind, new ObserverRegistry<>());
+        }
+        return registries;
+    }
+
+    public synchronized void add(T observer) {
+        if (members.add(observer)) {
+            stale = true;
+        }
+    }
+
+    public synchronized void remove(T observer) {
+        if (members.remove(observer)) {
+            stale = true;
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super T> action) {
+        for (Object observer : snapshot()) {
+            action.accept((T) observer);
+        }
+    }
+
+    private Object[] snapshot() {
+        if (stale) {
+            synchronized (this) {
+                if (stale) {
+                    snapshot = members.toArray();
+                    stale = false;
+                }
+            }
+        }
+        return snapshot;
+    }
+}
+
+
+// MARK: - Music Source Strategy
+
+interface MusicSource {
+    CompletableFuture<List<Song>> loadSongs();
+
+    // Delivers the catalog in batches as they become available. Sources that cannot stream publish loadSongs() as one batch.
+    default Flow.Publisher<List<Song>> streamSongs() {
+        return new SongBatchPublisher(sink -> sink.submit(loadSongs().join()));
+    }
+
+    // Completes with a newer catalog when the source has one, or empty when nothing changed or it cannot tell.
+    default CompletableFuture<Optional<List<Song>>> refresh() {
+        return CompletableFuture.completedFuture(Optional.empty());
+    }
+}
+
+// Cold publisher: every subscriber gets its own producer run on a background thread. SubmissionPublisher.submit
+// blocks once the subscriber's buffer is full, so a slow consumer throttles parsing instead of piling up batches.
+class SongBatchPublisher implements Flow.Publisher<List<Song>> {
+    public static final int BATCH_SIZE = 500;
+
+    private static final ExecutorService PRODUCERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "song-batch-producer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    interface Producer {
+        void produce(SubmissionPublisher<List<Song>> sink) throws Exception;
+    }
+
+    private final Producer producer;
+
+    SongBatchPublisher(Producer producer) {
+        this.producer = producer;
+    }
+
+    public static void submitInBatches(SubmissionPublisher<List<Song>> sink, List<Song> songs) {
+        for (int from = 0; from < songs.size(); from += BATCH_SIZE) {
+            sink.submit(List.copyOf(songs.subList(from, Math.min(songs.size(), from + BATCH_SIZE))));
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<Song>> subscriber) {
+        SubmissionPublisher<List<Song>> sink = new SubmissionPublisher<>();
+        sink.subscribe(subscriber);
+        PRODUCERS.execute(() -> {
+            try {
+                producer.produce(sink);
+                sink.close();
+            } catch (Exception exception) {
+                sink.closeExceptionally(exception);
+            }
+        });
+    }
+}
+
+class LocalMusicSource implements MusicSource {
+    private static final String LOCAL_ARTIST = StringPool.ARTISTS.intern("Local Artist");
+    private static final List<Song> SONGS = List.of(
+        new Song("local-1", "Local Song 1", LOCAL_ARTIST, 180),
+        new Song("local-2", "Local Song 2", LOCAL_ARTIST, 240)
+    );
+
+    @Override
+    public CompletableFuture<List<Song>> loadSongs() {
+        return CompletableFuture.completedFuture(SONGS);
+    }
+
+    @Override
+    public Flow.Publisher<List<Song>> streamSongs() {
+        return new SongBatchPublisher(sink -> sink.submit(SONGS));
+    }
+}
+
+// Queries every source at once and merges the results by Song.id, keeping the first source's copy of a duplicate.
+// A source that fails or misses the deadline contributes nothing, so the merged load takes at most one deadline.
+class CompositeMusicSource implements MusicSource {
+    private final List<MusicSource> sources;
+    private final Duration perSourceDeadline;
+
+    public CompositeMusicSource(List<MusicSource> sources, Duration perSourceDeadline) {
+        this.sources = List.copyOf(sources);
+        this.perSourceDeadline = perSourceDeadline;
+    }
+
+    @Override
+    public CompletableFuture<List<Song>> loadSongs() {
+        List<CompletableFuture<List<Song>>> pending = new ArrayList<>(sources.size());
+        for (MusicSource source : sources) {
+            pending.add(loadWithinDeadline(source));
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> {
+                    Map<String, Song> merged = new LinkedHashMap<>();
+                    for (CompletableFuture<List<Song>> result : pending) {
+                        for (Song song : result.join()) {
+                            merged.putIfAbsent(song.id(), song);
+                        }
+                    }
+                    return List.copyOf(merged.values());
+                });
+    }
+
+    private CompletableFuture<List<Song>> loadWithinDeadline(MusicSource source) {
+        CompletableFuture<List<Song>> songs;
+        try {
+            songs = source.loadSongs();
+        } catch (RuntimeException exception) {
+            songs = CompletableFuture.failedFuture(exception);
+        }
+        // copy() so the timeout completes our own stage, never a future the source may share with other callers.
+        return songs.copy()
+                .completeOnTimeout(null, perSourceDeadline.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((loaded, error) -> {
+                    if (error != null) {
+                        System.err.println("Skipping music source " + source.getClass().getSimpleName() + ": " + error.getMessage());
+                        return List.of();
+                    }
+                    if (loaded == null) {
+                        System.err.println("Music source " + source.getClass().getSimpleName() + " missed its deadline");
+                        return List.of();
+                    }
+                    return loaded;
+                });
+    }
+}
+
+// Concurrent calls for the same key share one in-flight future. A successful result is reused for a short
+// window after it completes, and a failure is dropped at once so the next call retries.
+class SingleFlight<V> {
+    private final ConcurrentHashMap<String, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final Duration window;
+
+    SingleFlight(Duration window) {
+        this.window = window;
+    }
+
+    public CompletableFuture<V> run(String key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing.copy();
+        }
+        CompletableFuture<V> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException exception) {
+            started = CompletableFuture.failedFuture(exception);
+        }
+        started.whenComplete((value, error) -> {
+            if (error != null) {
+                flights.remove(key, flight);
+                flight.completeExceptionally(error);
+            } else {
+                flight.complete(value);
+                CompletableFuture.delayedExecutor(window.toMillis(), TimeUnit.MILLISECONDS)
+                        .execute(() -> flights.remove(key, flight));
+            }
+        });
+        return flight.copy();
+    }
+}
+
+enum RequestPriority {
+    INTERACTIVE, BACKGROUND
+}
+
+// Token bucket shared by every caller of one upstream. Callers that cannot take a token right away wait in a
+// priority queue, so interactive requests overtake queued background ones. Wait times are kept as metrics.
+class RateLimiter {
+    private record Waiter(RequestPriority priority, long sequence, long enqueuedNanos, CompletableFuture<Void> permit) { }
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+        Comparator.comparing(Waiter::priority).thenComparingLong(Waiter::sequence));
+    private final LongAdder grantedPermits = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private long sequence = 0;
+    private boolean drainScheduled = false;
+
+    RateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    public CompletableFuture<Void> acquire(RequestPriority priority) {
+        synchronized (this) {
+            refill();
+            if (waiters.isEmpty() && tokens >= 1) {
+                tokens -= 1;
+                recordGrant(0);
+                return CompletableFuture.completedFuture(null);
+            }
+            Waiter waiter = new Waiter(priority, sequence++, System.nanoTime(), new CompletableFuture<>());
+            waiters.add(waiter);
+            scheduleDrain();
+            return waiter.permit();
+        }
+    }
+
+    private void drain() {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            drainScheduled = false;
+            refill();
+            long now = System.nanoTime();
+            while (tokens >= 1 && !waiters.isEmpty()) {
+                Waiter waiter = waiters.poll();
+                tokens -= 1;
+                recordGrant(now - waiter.enqueuedNanos());
+                granted.add(waiter);
+            }
+            if (!waiters.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+        granted.forEach(waiter -> waiter.permit().complete(null));
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        long delayNanos = (long) (Math.max(0, 1 - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+        CompletableFuture.delayedExecutor(Math.max(1, delayNanos), TimeUnit.NANOSECONDS).execute(this::drain);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    private void recordGrant(long waitedNanos) {
+        grantedPermits.increment();
+        queueWaitNanos.add(waitedNanos);
+        maxQueueWaitNanos.accumulateAndGet(waitedNanos, Math::max);
+    }
+
+    public synchronized int getQueuedRequests() { return waiters.size(); }
+    public long getGrantedPermits() { return grantedPermits.sum(); }
+    public double getAverageQueueWaitMillis() {
+        long granted = grantedPermits.sum();
+        return granted == 0 ? 0 : queueWaitNanos.sum() / 1_000_000.0 / granted;
+    }
+    public double getMaxQueueWaitMillis() { return maxQueueWaitNanos.get() / 1_000_000.0; }
+}
+
+// Sliding window of recent response latencies. Until enough samples exist, percentiles fall back to a default.
+class LatencyTracker {
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] samplesMillis;
+    private int next = 0;
+    private int count = 0;
+
+    LatencyTracker(int windowSize) {
+        this.samplesMillis = new long[windowSize];
+    }
+
+    public synchronized void record(long latencyMillis) {
+        samplesMillis[next] = latencyMillis;
+        next = (next + 1) % samplesMillis.length;
+        count = Math.min(count + 1, samplesMillis.length);
+    }
+
+    public long percentileMillis(double percentile, long fallbackMillis) {
+        long[] window;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return fallbackMillis;
+            }
+            window = Arrays.copyOf(samplesMillis, count);
+        }
+        Arrays.sort(window);
+        int rank = (int) Math.ceil(percentile * window.length) - 1;
+        return window[Math.max(0, Math.min(window.length - 1, rank))];
+    }
+}
+
+// Sends a request with a timeout derived from observed p99 latency and a hedged duplicate once p95 has passed
+// without a response. Until enough latencies are recorded the timeout is DEFAULT_TIMEOUT_MILLIS. The same timeout
+// bounds each wait for body bytes, since HttpRequest.timeout only covers the headers. Failed attempts are retried
+// with jittered exponential backoff.
+class HedgedRequestSender {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 200;
+    private static final long MIN_TIMEOUT_MILLIS = 1000;
+    private static final long MAX_TIMEOUT_MILLIS = 30000;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    private static final long DEFAULT_HEDGE_MILLIS = 2000;
+
+    private final HttpClient httpClient;
+    private final LatencyTracker latencies;
+    private final RateLimiter rateLimiter;
+
+    HedgedRequestSender(HttpClient httpClient, LatencyTracker latencies, RateLimiter rateLimiter) {
+        this.httpClient = httpClient;
+        this.latencies = latencies;
+        this.rateLimiter = rateLimiter;
+    }
+
+    public CompletableFuture<HttpResponse<InputStream>> send(Supplier<HttpRequest.Builder> request, RequestPriority priority) {
+        return attempt(request, priority, 1);
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> attempt(Supplier<HttpRequest.Builder> request, RequestPriority priority, int attempt) {
+        long p99Millis = latencies.percentileMillis(0.99, -1);
+        long timeoutMillis = p99Millis < 0
+            ? DEFAULT_TIMEOUT_MILLIS
+            : Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, p99Millis * 3));
+        HttpRequest timed = request.get().timeout(Duration.ofMillis(timeoutMillis)).build();
+
+        return hedged(timed, priority).handle((response, error) -> {
+            boolean retryable = error != null || response.statusCode() == 429 || response.statusCode() >= 500;
+            if (!retryable || attempt >= MAX_ATTEMPTS) {
+                return error == null
+                    ? CompletableFuture.completedFuture(response)
+                    : CompletableFuture.<HttpResponse<InputStream>>failedFuture(unwrap(error));
+            }
+            if (response != null) {
+                discard(response);
+            }
+            long backoffMillis = ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS << (attempt - 1)) + 1;
+            return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS))
+                    .thenCompose(ignored -> attempt(request, priority, attempt + 1));
+        }).thenCompose(next -> next);
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> hedged(HttpRequest request, RequestPriority priority) {
+        CompletableFuture<HttpResponse<InputStream>> winner = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        // The hedge delay starts once the first request holds its permit, so time queued behind the rate limiter
+        // is not mistaken for a slow response.
+        race(request, priority, winner, outstanding, () -> {
+            long hedgeAfterMillis = latencies.percentileMillis(0.95, DEFAULT_HEDGE_MILLIS);
+            CompletableFuture.delayedExecutor(hedgeAfterMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!winner.isDone() && outstanding.incrementAndGet() > 1) {
+                    race(request, priority, winner, outstanding, () -> {});
+                }
+            });
+        });
+        return winner;
+    }
+
+    // Every request, hedges and retries included, spends a rate-limiter permit; onPermit runs as it is granted.
+    // The first response wins; a losing response's body is discarded, and the race fails only if every request fails.
+    private void race(HttpRequest request, RequestPriority priority,
+                      CompletableFuture<HttpResponse<InputStream>> winner, AtomicInteger outstanding, Runnable onPermit) {
+        long stallMillis = request.timeout().map(Duration::toMillis).orElse(DEFAULT_TIMEOUT_MILLIS);
+        HttpResponse.BodyHandler<InputStream> guarded = info -> HttpResponse.BodySubscribers.mapping(
+            HttpResponse.BodySubscribers.ofInputStream(), body -> new StallGuardInputStream(body, stallMillis));
+        rateLimiter.acquire(priority).thenCompose(permit -> {
+            onPermit.run();
+            long startedNanos = System.nanoTime();
+            return httpClient.sendAsync(request, guarded)
+                    .thenApply(response -> {
+                        latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+                        return response;
+                    });
+        }).whenComplete((response, error) -> {
+            if (error == null) {
+                if (!winner.complete(response)) {
+                    discard(response);
+                }
+            } else if (outstanding.decrementAndGet() == 0) {
+                winner.completeExceptionally(error);
+            }
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static void discard(HttpResponse<InputStream> response) {
+        try {
+            response.body().close();
+        } catch (IOException ignored) {
+            // The response is being thrown away; a failure to close it changes nothing.
+        }
+    }
+}
+
+// Closes the stream once no bytes have arrived for stallMillis, so a read blocked on a stalled response body fails
+// with an IOException instead of waiting forever. One timer per stream is re-armed only when it fires.
+class StallGuardInputStream extends FilterInputStream {
+    private final long stallNanos;
+    private volatile long lastProgressNanos = System.nanoTime();
+    private volatile boolean closed = false;
+
+    StallGuardInputStream(InputStream in, long stallMillis) {
+        super(in);
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+        watch(stallNanos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        lastProgressNanos = System.nanoTime();
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        lastProgressNanos = System.nanoTime();
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        super.close();
+    }
+
+    private void watch(long delayNanos) {
+        CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            if (closed) {
+                return;
+            }
+            long idleNanos = System.nanoTime() - lastProgressNanos;
+            if (idleNanos < stallNanos) {
+                watch(stallNanos - idleNanos);
+                return;
+            }
+            System.err.println("Could not read response body: no data for " + TimeUnit.NANOSECONDS.toMillis(idleNanos) + " ms");
+            try {
+                close();
+            } catch (IOException ignored) {
+                // Closing is only a way to unblock the reader; it sees the failure on its next read.
+            }
+        });
+    }
+}
+
+class AudioDbMusicSource implements MusicSource {
+    private static final String DEFAULT_API_URL = "https://www.theaudiodb.com/api/v1/json/2/mostloved.php?format=track";
+    private static final SingleFlight<CachedCatalog> FLIGHTS = new SingleFlight<>(Duration.ofSeconds(2));
+    private static final LatencyTracker LATENCIES = new LatencyTracker(256);
+    // The public API key is shared and rate-limited upstream, so every instance draws from the same budget.
+    private static final RateLimiter RATE_LIMITER = new RateLimiter(2.0, 4);
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final HedgedRequestSender requestSender = new HedgedRequestSender(httpClient, LATENCIES, RATE_LIMITER);
+    private final String apiUrl;
+    private final CatalogCache catalogCache;
+
+    public AudioDbMusicSource() {
+        this(DEFAULT_API_URL, CatalogCache.defaultCache());
+    }
+
+    public AudioDbMusicSource(String apiUrl, CatalogCache catalogCache) {
+        this.apiUrl = apiUrl;
+        this.catalogCache = catalogCache;
+    }
+
+    // A cached catalog is served immediately; once it has expired it is also revalidated in the background
+    // so the next start sees fresh data.
+    @Override
+    public CompletableFuture<List<Song>> loadSongs() {
+        Optional<CachedCatalog> cached = readCacheAndRevalidate();
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get().songs());
+        }
+        return FLIGHTS.run("GET " + apiUrl, () -> fetchCatalog(null, RequestPriority.INTERACTIVE)).thenApply(CachedCatalog::songs);
+    }
+
+    // Batches are published while the response is still being parsed, on the publisher's producer thread.
+    @Override
+    public Flow.Publisher<List<Song>> streamSongs() {
+        return new SongBatchPublisher(sink -> {
+            Optional<CachedCatalog> cached = readCacheAndRevalidate();
+            if (cached.isPresent()) {
+                SongBatchPublisher.submitInBatches(sink, cached.get().songs());
+                return;
+            }
+            // The caller that starts the flight streams batches as it parses; callers that join it get the result in batches.
+            AtomicBoolean leader = new AtomicBoolean(false);
+            CachedCatalog catalog = FLIGHTS.run("GET " + apiUrl, () -> {
+                leader.set(true);
+                return CompletableFuture.completedFuture(toCatalog(send(null, RequestPriority.INTERACTIVE).join(), null, sink::submit));
+            }).join();
+            if (!leader.get()) {
+                SongBatchPublisher.submitInBatches(sink, catalog.songs());
+            }
+        });
+    }
+
+    // Reads only the cached validators, so an unchanged catalog is never loaded onto the heap; a 304 just extends
+    // the cached expiry.
+    @Override
+    public CompletableFuture<Optional<List<Song>>> refresh() {
+        Optional<CachedCatalog> header = catalogCache.readHeader(apiUrl);
+        if (header.isPresent() && header.get().isFreshAt(System.currentTimeMillis())) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return FLIGHTS.run("REVALIDATE " + apiUrl, () -> fetchCatalog(header.orElse(null), RequestPriority.BACKGROUND))
+            .thenApply(catalog -> header.isPresent() && catalog.songs() == header.get().songs()
+                ? Optional.<List<Song>>empty()
+                : Optional.of(catalog.songs()).filter(songs -> !songs.isEmpty()));
+    }
+
+    private Optional<CachedCatalog> readCacheAndRevalidate() {
+        Optional<CachedCatalog> cached = catalogCache.read(apiUrl);
+        cached.filter(catalog -> !catalog.isFreshAt(System.currentTimeMillis())).ifPresent(catalog ->
+            FLIGHTS.run("REVALIDATE " + apiUrl, () -> fetchCatalog(catalog, RequestPriority.BACKGROUND)).exceptionally(error -> {
+                System.err.println("Could not revalidate cached catalog: " + error.getMessage());
+                return catalog;
+            }));
+        return cached;
+    }
+
+    private CompletableFuture<CachedCatalog> fetchCatalog(CachedCatalog previous, RequestPriority priority) {
+        // The body is parsed while it streams in, on an async thread rather than the client's completion thread.
+        return send(previous, priority).thenApplyAsync(response -> toCatalog(response, previous, batch -> { }));
+    }
+
+    public static RateLimiter rateLimiter() {
+        return RATE_LIMITER;
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> send(CachedCatalog previous, RequestPriority priority) {
+        return requestSender.send(() -> {
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                    .uri(URI.create(apiUrl));
+            if (previous != null && previous.etag() != null) {
+                builder.header("If-None-Match", previous.etag());
+            }
+            if (previous != null && previous.lastModified() != null) {
+                builder.header("If-Modified-Since", previous.lastModified());
+            }
+            return builder;
+        }, priority);
+    }
+
+    private CachedCatalog toCatalog(HttpResponse<InputStream> response, CachedCatalog previous, Consumer<List<Song>> batches) {
+        long expiresAt = System.currentTimeMillis() + catalogCache.timeToLive().toMillis();
+        if (response.statusCode() == 304 && previous != null) {
+            closeQuietly(response.body());
+            catalogCache.updateExpiry(apiUrl, expiresAt);
+            return previous.withExpiry(expiresAt);
+        }
+        CachedCatalog fetched = new CachedCatalog(
+            apiUrl,
+            expiresAt,
+            response.headers().firstValue("ETag").orElse(null),
+            response.headers().firstValue("Last-Modified").orElse(null),
+            parseSongsFromResponse(response.body(), batches)
+        );
+        if (response.statusCode() == 200 && !fetched.songs().isEmpty()) {
+            catalogCache.write(fetched);
+        }
+        return fetched;
+    }
+
+    private List<Song> parseSongsFromResponse(InputStream body, Consumer<List<Song>> batches) {
+        List<Song> songs = new ArrayList<>();
+        int published = 0;
+        try (TrackJsonReader reader = new TrackJsonReader(body)) {
+            if (reader.enterArray("loved")) {
+                Song song;
+                while ((song = reader.nextTrack()) != null) {
+                    songs.add(song);
+                    if (songs.size() - published == SongBatchPublisher.BATCH_SIZE) {
+                        batches.accept(List.copyOf(songs.subList(published, songs.size())));
+                        published = songs.size();
+                    }
+                }
+            }
+        } catch (IOException | IllegalStateException exception) {
+            System.err.println("Could not parse JSON from TheAudioDB: " + exception.getMessage());
+        }
+        if (published < songs.size()) {
+            batches.accept(List.copyOf(songs.subList(published, songs.size())));
+        }
+        return songs;
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignored) {
+            // Nothing useful to do with a failure to discard an unread body.
+        }
+    }
+}
+
+// Pull parser over a TheAudioDB response that yields one Song per track object without building a JSON tree.
+// Only idTrack, strTrack, strArtist and intDuration are decoded; every other value is skipped in place.
+class TrackJsonReader implements AutoCloseable {
+    private static final int DEFAULT_DURATION_MILLIS = 180000;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder scratch = new StringBuilder();
+    private int position = 0;
+    private int limit = 0;
+
+    TrackJsonReader(InputStream input) {
+        this.reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+    }
+
+    // Positions the reader inside the named top-level array; false when the key is missing or not an array.
+    public boolean enterArray(String name) throws IOException {
+        expect('{');
+        if (peekToken() == '}') {
+            return false;
+        }
+        while (true) {
+            String key = readString();
+            expect(':');
+            if (key.equals(name) && peekToken() == '[') {
+                next();
+                return true;
+            }
+            skipValue();
+            char separator = nextToken();
+            if (separator == '}') {
+                return false;
+            }
+            if (separator != ',') {
+                throw unexpected(separator);
+            }
+        }
+    }
+
+    // Returns the next track with a non-empty id, or null once the array is exhausted.
+    public Song nextTrack() throws IOException {
+        while (true) {
+            char token = nextToken();
+            if (token == ']') {
+                return null;
+            }
+            if (token == ',') {
+                token = nextToken();
+            }
+            if (token != '{') {
+                throw unexpected(token);
+            }
+            Song song = readTrack();
+            if (song != null) {
+                return song;
+            }
+        }
+    }
+
+    private Song readTrack() throws IOException {
+        String id = "";
+        String title = "Unknown Title";
+        String artist = "Unknown Artist";
+        int durationInMillis = DEFAULT_DURATION_MILLIS;
+
+        if (peekToken() == '}') {
+            next();
+            return null;
+        }
+        while (true) {
+            String key = readString();
+            expect(':');
+            switch (key) {
+                case "idTrack" -> id = orDefault(readScalar(), "");
+                case "strTrack" -> title = orDefault(readScalar(), title);
+                case "strArtist" -> artist = orDefault(readScalar(), artist);
+                case "intDuration" -> durationInMillis = parseIntOrDefault(readScalar(), DEFAULT_DURATION_MILLIS);
+                default -> skipValue();
+            }
+            char separator = nextToken();
+            if (separator == '}') {
+                break;
+            }
+            if (separator != ',') {
+                throw unexpected(separator);
+            }
+        }
+        return id.isEmpty() ? null : new Song(id, title, StringPool.ARTISTS.intern(artist), durationInMillis / 1000);
+    }
+
+    // Strings, numbers and booleans are returned as text; null and nested values yield null.
+    private String readScalar() throws IOException {
+        char token = peekToken();
+        if (token == '"') {
+            return readString();
+        }
+        if (token == '{' || token == '[') {
+            skipValue();
+            return null;
+        }
+        String literal = readLiteral();
+        return literal.equals("null") ? null : literal;
+    }
+
+    private void skipValue() throws IOException {
+        char token = peekToken();
+        if (token == '"') {
+            skipString();
+        } else if (token == '{' || token == '[') {
+            int depth = 0;
+            do {
+                char c = next();
+                if (c == '"') {
+                    position--;
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            readLiteral();
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        scratch.setLength(0);
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c == '\\') {
+                scratch.append(readEscape());
+            } else {
+                scratch.append(c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        char c = next();
+        return switch (c) {
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'u' -> readHexChar();
+            default -> c;
+        };
+    }
+
+    // Malformed hex is a parse error like any other, so the tracks read so far are kept.
+    private char readHexChar() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(next(), 16);
+            if (digit < 0) {
+                throw new IllegalStateException("Malformed \\u escape in JSON string");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    private String readLiteral() throws IOException {
+        skipWhitespace();
+        scratch.setLength(0);
+        while (fill()) {
+            char c = buffer[position];
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            scratch.append(c);
+            position++;
+        }
+        if (scratch.length() == 0) {
+            throw new IllegalStateException("Expected a JSON value");
+        }
+        return scratch.toString();
+    }
+
+    private void expect(char expected) throws IOException {
+        char token = nextToken();
+        if (token != expected) {
+            throw unexpected(token);
+        }
+    }
+
+    private char peekToken() throws IOException {
+        skipWhitespace();
+        if (!fill()) {
+            throw new IllegalStateException("Unexpected end of JSON");
+        }
+        return buffer[position];
+    }
+
+    private char nextToken() throws IOException {
+        skipWhitespace();
+        return next();
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (fill() && Character.isWhitespace(buffer[position])) {
+            position++;
+        }
+    }
+
+    private char next() throws IOException {
+        if (!fill()) {
+            throw new IllegalStateException("Unexpected end of JSON");
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        limit = reader.read(buffer, 0, buffer.length);
+        position = 0;
+        return limit > 0;
+    }
+
+    private static IllegalStateException unexpected(char token) {
+        return new IllegalStateException("Unexpected character '" + token + "' in JSON");
+    }
+
+    private static String orDefault(String value, String fallback) {
+        return value == null ? fallback : value;
+    }
+
+    private static int parseIntOrDefault(String value, int fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return (int) Double.parseDouble(value.trim());
+        } catch (NumberFormatException exception) {
+            return fallback;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
+
+record CachedCatalog(String url, long expiresAtMillis, String etag, String lastModified, List<Song> songs) {
+    boolean isFreshAt(long nowMillis) {
+        return nowMillis < expiresAtMillis;
+    }
+
+    CachedCatalog withExpiry(long newExpiresAtMillis) {
+        return new CachedCatalog(url, newExpiresAtMillis, etag, lastModified, songs);
+    }
+}
+
+// One binary file per request URL: header (magic, version, url, expiry, validators) followed by the song rows.
+class CatalogCache {
+    private static final int MAGIC = 0x4D50_4343;
+    private static final int VERSION = 1;
+    private static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(6);
+
+    private final Path directory;
+    private final Duration timeToLive;
+
+    public CatalogCache(Path directory, Duration timeToLive) {
+        this.directory = directory;
+        this.timeToLive = timeToLive;
+    }
+
+    public static CatalogCache defaultCache() {
+        Path directory = Path.of(System.getProperty("user.home"), ".musicplayer", "catalog-cache");
+        return new CatalogCache(directory, DEFAULT_TIME_TO_LIVE);
+    }
+
+    public Duration timeToLive() {
+        return timeToLive;
+    }
+
+    public Optional<CachedCatalog> read(String url) {
+        return read(url, true);
+    }
+
+    // Expiry and validators only; the returned catalog has no songs.
+    public Optional<CachedCatalog> readHeader(String url) {
+        return read(url, false);
+    }
+
+    // Rewrites the expiry in place, leaving the song rows untouched.
+    public void updateExpiry(String url, long expiresAtMillis) {
+        Path file = fileFor(url);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (readHeader(url).isEmpty()) {
+                return;
+            }
+            ByteBuffer expiry = ByteBuffer.allocate(Long.BYTES).putLong(0, expiresAtMillis);
+            channel.write(expiry, expiryOffset(url));
+        } catch (IOException exception) {
+            System.err.println("Could not update catalog cache " + file + ": " + exception.getMessage());
+        }
+    }
+
+    private Optional<CachedCatalog> read(String url, boolean withSongs) {
+        Path file = fileFor(url);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !input.readUTF().equals(url)) {
+                return Optional.empty();
+            }
+            long expiresAt = input.readLong();
+            String etag = readNullableUTF(input);
+            String lastModified = readNullableUTF(input);
+            if (!withSongs) {
+                return Optional.of(new CachedCatalog(url, expiresAt, etag, lastModified, List.of()));
+            }
+            int count = input.readInt();
+            List<Song> songs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                songs.add(new Song(input.readUTF(), input.readUTF(), StringPool.ARTISTS.intern(input.readUTF()), input.readInt()));
+            }
+            return Optional.of(new CachedCatalog(url, expiresAt, etag, lastModified, List.copyOf(songs)));
+        } catch (NoSuchFileException missing) {
+            return Optional.empty();
+        } catch (IOException exception) {
+            System.err.println("Could not read catalog cache " + file + ": " + exception.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void write(CachedCatalog catalog) {
+        Path file = fileFor(catalog.url());
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "catalog", ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(catalog.url());
+                output.writeLong(catalog.expiresAtMillis());
+                writeNullableUTF(output, catalog.etag());
+                writeNullableUTF(output, catalog.lastModified());
+                output.writeInt(catalog.songs().size());
+                for (Song song : catalog.songs()) {
+                    output.writeUTF(song.id());
+                    output.writeUTF(song.title());
+                    output.writeUTF(song.artist());
+                    output.writeInt(song.duration());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exception) {
+            System.err.println("Could not write catalog cache " + file + ": " + exception.getMessage());
+        }
+    }
+
+    // Magic and version, then the URL as written by writeUTF: a two-byte length and its modified UTF-8 bytes.
+    private static long expiryOffset(String url) throws IOException {
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+        new DataOutputStream(prefix).writeUTF(url);
+        return 2L * Integer.BYTES + prefix.size();
+    }
+
+    private Path fileFor(String url) {
+        return directory.resolve(UUID.nameUUIDFromBytes(url.getBytes(StandardCharsets.UTF_8)) + ".catalog");
+    }
+
+    private static String readNullableUTF(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+}
+
+// Read-only, memory-mapped catalog snapshot. Opening maps the file and checks the header; rows are decoded
+// only when read, so the songs live in the page cache rather than on the heap.
+//
+// Layout: header (magic, version, song count, artist count), then one fixed-width row per song
+// (text offset, id length, title length, artist code, duration), then one (offset, length) entry per artist,
+// then the UTF-8 text that rows and artists point into.
+class MappedCatalog {
+    private static final int MAGIC = 0x4D50_4D43;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int ROW_BYTES = 20;
+    private static final int ARTIST_BYTES = 8;
+
+    public static Path defaultSnapshot() {
+        return Path.of(System.getProperty("user.home"), ".musicplayer", "catalog.snapshot");
+    }
+
+    public static List<Song> open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " catalog snapshot: " + file);
+        }
+        int size = buffer.getInt(8);
+        int artistCount = buffer.getInt(12);
+        if (!isComplete(buffer, size, artistCount)) {
+            throw new IOException("Truncated or damaged catalog snapshot: " + file);
+        }
+        return new View(buffer, size, artistCount);
+    }
+
+    // Text is written in one run after the tables: the rows' ids and titles, then the artist names. Checking the
+    // tables and the last entry of each kind catches a file cut short without touching every row.
+    private static boolean isComplete(ByteBuffer buffer, int size, int artistCount) {
+        long tablesEnd = HEADER_BYTES + (long) size * ROW_BYTES + (long) artistCount * ARTIST_BYTES;
+        if (size < 0 || artistCount < 0 || (size > 0 && artistCount == 0) || tablesEnd > buffer.capacity()) {
+            return false;
+        }
+        if (size > 0) {
+            int row = HEADER_BYTES + (size - 1) * ROW_BYTES;
+            long rowEnd = (long) buffer.getInt(row) + buffer.getInt(row + 4) + buffer.getInt(row + 8);
+            if (buffer.getInt(row) < tablesEnd || rowEnd > buffer.capacity()) {
+                return false;
+            }
+        }
+        if (artistCount > 0) {
+            int entry = (int) tablesEnd - ARTIST_BYTES;
+            long artistEnd = (long) buffer.getInt(entry) + buffer.getInt(entry + 4);
+            return buffer.getInt(entry) >= tablesEnd && artistEnd <= buffer.capacity();
+        }
+        return true;
+    }
+
+    public static void write(Path file, List<Song> songs) throws IOException {
+        Map<String, Integer> artistCodes = new LinkedHashMap<>();
+        for (Song song : songs) {
+            artistCodes.putIfAbsent(song.artist(), artistCodes.size());
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "catalog", ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(songs.size());
+            output.writeInt(artistCodes.size());
+
+            int textOffset = HEADER_BYTES + songs.size() * ROW_BYTES + artistCodes.size() * ARTIST_BYTES;
+            for (Song song : songs) {
+                int idLength = utf8Length(song.id());
+                int titleLength = utf8Length(song.title());
+                output.writeInt(textOffset);
+                output.writeInt(idLength);
+                output.writeInt(titleLength);
+                output.writeInt(artistCodes.get(song.artist()));
+                output.writeInt(song.duration());
+                textOffset += idLength + titleLength;
+            }
+            for (String artist : artistCodes.keySet()) {
+                int length = utf8Length(artist);
+                output.writeInt(textOffset);
+                output.writeInt(length);
+                textOffset += length;
+            }
+            for (Song song : songs) {
+                output.write(song.id().getBytes(StandardCharsets.UTF_8));
+                output.write(song.title().getBytes(StandardCharsets.UTF_8));
+            }
+            for (String artist : artistCodes.keySet()) {
+                output.write(artist.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static final class View extends AbstractList<Song> implements RandomAccess, SongColumns {
+        private final ByteBuffer buffer;
+        private final int size;
+        private final String[] artists;
+
+        private View(ByteBuffer buffer, int size, int artistCount) {
+            this.buffer = buffer;
+            this.size = size;
+            this.artists = new String[artistCount];
+        }
+
+        private int row(int index) {
+            Objects.checkIndex(index, size);
+            return HEADER_BYTES + index * ROW_BYTES;
+        }
+
+        private String text(int offset, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes, 0, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Song get(int index) {
+            int row = row(index);
+            int textOffset = buffer.getInt(row);
+            int idLength = buffer.getInt(row + 4);
+            return new Song(text(textOffset, idLength), titleAt(index), artistAt(index), durationAt(index));
+        }
+
+        @Override
+        public String titleAt(int index) {
+            int row = row(index);
+            return text(buffer.getInt(row) + buffer.getInt(row + 4), buffer.getInt(row + 8));
+        }
+
+        // Artist names are decoded once and then shared; a racing duplicate decode is harmless.
+        @Override
+        public String artistAt(int index) {
+            int code = buffer.getInt(row(index) + 12);
+            String artist = artists[code];
+            if (artist == null) {
+                int entry = HEADER_BYTES + size * ROW_BYTES + code * ARTIST_BYTES;
+                artist = StringPool.ARTISTS.intern(text(buffer.getInt(entry), buffer.getInt(entry + 4)));
+                artists[code] = artist;
+            }
+            return artist;
+        }
+
+        @Override
+        public int durationAt(int index) {
+            return buffer.getInt(row(index) + 16);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
+
+// Serves the mapped snapshot when one exists and refreshes it from the fallback in the background for the next
+// launch. Without a snapshot it delegates to the fallback and writes one from the fallback's result.
+class MappedMusicSource implements MusicSource {
+    private final Path snapshot;
+    private final MusicSource fallback;
+
+    public MappedMusicSource(Path snapshot, MusicSource fallback) {
+        this.snapshot = snapshot;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public CompletableFuture<List<Song>> loadSongs() {
+        Optional<List<Song>> mapped = openSnapshot();
+        if (mapped.isPresent()) {
+            refreshSnapshot();
+            return CompletableFuture.completedFuture(mapped.get());
+        }
+        return fallback.loadSongs().thenApply(songs -> {
+            writeSnapshot(songs);
+            return songs;
+        });
+    }
+
+    // Without a snapshot the fallback's batches are passed straight through and collected, and the snapshot is
+    // written from them once the stream completes, so the first launch streams as fast as the fallback does.
+    @Override
+    public Flow.Publisher<List<Song>> streamSongs() {
+        Optional<List<Song>> mapped = openSnapshot();
+        if (mapped.isPresent()) {
+            refreshSnapshot();
+            return new SongBatchPublisher(sink -> sink.submit(mapped.get()));
+        }
+        Flow.Publisher<List<Song>> batches = fallback.streamSongs();
+        return subscriber -> batches.subscribe(new Flow.Subscriber<List<Song>>() {
+            private final List<Song> songs = new ArrayList<>();
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(List<Song> batch) {
+                songs.addAll(batch);
+                subscriber.onNext(batch);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                subscriber.onError(error);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+                writeSnapshot(songs);
+            }
+        });
+    }
+
+    // Rewrites the snapshot only when the fallback reports a changed catalog. The new file replaces the old one
+    // atomically, so a snapshot that is already mapped stays readable.
+    private void refreshSnapshot() {
+        fallback.refresh().thenAccept(changed -> changed.ifPresent(this::writeSnapshot)).exceptionally(error -> {
+            System.err.println("Could not refresh catalog snapshot: " + error.getMessage());
+            return null;
+        });
+    }
+
+    private Optional<List<Song>> openSnapshot() {
+        if (!Files.exists(snapshot)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(MappedCatalog.open(snapshot));
+        } catch (IOException exception) {
+            System.err.println("Could not open catalog snapshot " + snapshot + ": " + exception.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private void writeSnapshot(List<Song> songs) {
+        if (songs.isEmpty()) {
+            return;
+        }
+        try {
+            MappedCatalog.write(snapshot, songs);
+        } catch (IOException exception) {
+            System.err.println("Could not write catalog snapshot " + snapshot + ": " + exception.getMessage());
+        }
+    }
+}
+
+// MARK: - Playback Scheduling
+
+class WheelTimeout {
+    private final long deadlineMillis;
+    private final Consumer<WheelTimeout> action;
+    private volatile boolean cancelled = false;
+
+    // The action is handed the timeout that fired, so it can tell whether it is still the one its owner armed.
+    WheelTimeout(long deadlineMillis, Consumer<WheelTimeout> action) {
+        this.deadlineMillis = deadlineMillis;
+        this.action = action;
+    }
+
+    public long deadlineMillis() { return deadlineMillis; }
+    public boolean isCancelled() { return cancelled; }
+    public void cancel() { cancelled = true; }
+
+    void fire() {
+        if (!cancelled) {
+            action.accept(this);
+        }
+    }
+}
+
+// Each level covers wheelSize ticks of its own width; deadlines beyond that go to a coarser overflow level
+// and cascade down as the clock reaches their bucket. Only the bucket for the current tick is ever visited.
+// bucketArmed is told the time a bucket falls due whenever it goes from empty to non-empty, on any level.
+class HierarchicalTimingWheel {
+    private final long tickMillis;
+    private final int wheelSize;
+    private final long intervalMillis;
+    private final List<List<WheelTimeout>> buckets;
+    private final LongConsumer bucketArmed;
+    private long currentTime;
+    private HierarchicalTimingWheel overflowWheel;
+
+    HierarchicalTimingWheel(long tickMillis, int wheelSize, long startMillis, LongConsumer bucketArmed) {
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.intervalMillis = tickMillis * wheelSize;
+        this.bucketArmed = bucketArmed;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.currentTime = startMillis - (startMillis % tickMillis);
+    }
+
+    public long currentTime() { return currentTime; }
+    public long tickMillis() { return tickMillis; }
+
+    // Returns false when the timeout is already due and should be fired by the caller.
+    public boolean add(WheelTimeout timeout) {
+        long deadline = timeout.deadlineMillis();
+        if (deadline < currentTime + tickMillis) {
+            return false;
+        }
+        if (deadline < currentTime + intervalMillis) {
+            List<WheelTimeout> bucket = buckets.get((int) ((deadline / tickMillis) % wheelSize));
+            if (bucket.isEmpty()) {
+                bucketArmed.accept(deadline - deadline % tickMillis);
+            }
+            bucket.add(timeout);
+            return true;
+        }
+        if (overflowWheel == null) {
+            overflowWheel = new HierarchicalTimingWheel(intervalMillis, wheelSize, currentTime, bucketArmed);
+        }
+        return overflowWheel.add(timeout);
+    }
+
+    public void advance(long timeMillis, Consumer<WheelTimeout> expired) {
+        if (timeMillis < currentTime + tickMillis) {
+            return;
+        }
+        currentTime = timeMillis - (timeMillis % tickMillis);
+        List<WheelTimeout> bucket = buckets.get((int) ((currentTime / tickMillis) % wheelSize));
+        if (!bucket.isEmpty()) {
+            List<WheelTimeout> drained = new ArrayList<>(bucket);
+            bucket.clear();
+            drained.forEach(expired);
+        }
+        if (overflowWheel != null) {
+            overflowWheel.advance(currentTime, expired);
+        }
+    }
+}
+
+// One daemon thread drives a single timing wheel for every session, so playing sessions cost a wheel entry
+// rather than a thread or a Swing Timer each. Timeout actions run on the scheduler thread and must be short.
+// The thread sleeps until the earliest non-empty bucket falls due, or indefinitely when nothing is pending, and
+// schedule() wakes it; the buckets in between are empty, so the wheel jumps straight over them.
+class PlaybackScheduler {
+    private static final PlaybackScheduler INSTANCE = new PlaybackScheduler(10, 512);
+
+    private final long originNanos = System.nanoTime();
+    private final ConcurrentLinkedQueue<WheelTimeout> incoming = new ConcurrentLinkedQueue<>();
+    private final List<WheelTimeout> due = new ArrayList<>();
+    // Due times of non-empty buckets; a bucket emptied by cancellation only costs a spurious wake-up.
+    private final PriorityQueue<Long> wakeups = new PriorityQueue<>();
+    private final HierarchicalTimingWheel wheel;
+    private final Thread driver;
+
+    private PlaybackScheduler(long tickMillis, int wheelSize) {
+        this.wheel = new HierarchicalTimingWheel(tickMillis, wheelSize, 0, wakeups::add);
+        this.driver = new Thread(this::run, "playback-scheduler");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    public static PlaybackScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    public long nowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - originNanos);
+    }
+
+    public WheelTimeout schedule(long delayMillis, Runnable action) {
+        return schedule(delayMillis, fired -> action.run());
+    }
+
+    // Deadlines are rounded up to a whole tick so a timeout never fires before it is due.
+    public WheelTimeout schedule(long delayMillis, Consumer<WheelTimeout> action) {
+        long tickMillis = wheel.tickMillis();
+        long deadline = nowMillis() + Math.max(0, delayMillis);
+        WheelTimeout timeout = new WheelTimeout((deadline + tickMillis - 1) / tickMillis * tickMillis, action);
+        incoming.add(timeout);
+        LockSupport.unpark(driver);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            tick();
+            if (!incoming.isEmpty()) {
+                continue;
+            }
+            Long next = wakeups.peek();
+            if (next == null) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(next - nowMillis()));
+            }
+        }
+    }
+
+    // Advances before taking new timeouts, so they are placed relative to the current time after a long sleep.
+    private void tick() {
+        long now = nowMillis();
+        long tickMillis = wheel.tickMillis();
+        while (wheel.currentTime() + tickMillis <= now) {
+            Long next = wakeups.peek();
+            long target = next == null ? now : Math.max(wheel.currentTime() + tickMillis, Math.min(now, next));
+            wheel.advance(target, this::enqueue);
+            while (!wakeups.isEmpty() && wakeups.peek() <= wheel.currentTime()) {
+                wakeups.poll();
+            }
+        }
+        WheelTimeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            enqueue(timeout);
+        }
+        for (WheelTimeout expired : due) {
+            try {
+                expired.fire();
+            } catch (RuntimeException exception) {
+                System.err.println("Playback timeout failed: " + exception.getMessage());
+            }
+        }
+        due.clear();
+    }
+
+    private void enqueue(WheelTimeout timeout) {
+        if (!timeout.isCancelled() && !wheel.add(timeout)) {
+            due.add(timeout);
+        }
+    }
+}
+
+
+// MARK: - Audio Playback
+
+// Strategy for locating a song's audio. Returns null when the song has no local audio, in which case the player
+// falls back to simulated playback.
+interface AudioResolver {
+    // Finds no audio for any song, so every track is simulated and no output line is ever opened.
+    AudioResolver SILENT = song -> null;
+
+    AudioInputStream open(Song song) throws IOException, UnsupportedAudioFileException;
+}
+
+// Resolves <song id>.wav inside one directory.
+class DirectoryAudioResolver implements AudioResolver {
+    private final Path directory;
+
+    DirectoryAudioResolver(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+    // The player.audio.dir system property, or ~/Music when it is not set.
+    public static DirectoryAudioResolver defaultDirectory() {
+        String configured = System.getProperty("player.audio.dir");
+        return new DirectoryAudioResolver(configured != null
+            ? Path.of(configured)
+            : Path.of(System.getProperty("user.home"), "Music"));
+    }
+
+    @Override
+    public AudioInputStream open(Song song) throws IOException, UnsupportedAudioFileException {
+        Path file = directory.resolve(song.id() + ".wav").normalize();
+        if (!file.startsWith(directory) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        return AudioSystem.getAudioInputStream(file.toFile());
+    }
+}
+
+// Single-producer/single-consumer byte ring over one preallocated array. Each side advances only its own
+// position and reads the other's, so neither side locks; positions never wrap and are masked into the array.
+class PcmRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    PcmRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        this.buffer = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() { return buffer.length; }
+    public long writePosition() { return writePosition.get(); }
+    public long readPosition() { return readPosition.get(); }
+
+    // Producer only. Returns how many bytes fit.
+    public int write(byte[] source, int offset, int length) {
+        long write = writePosition.get();
+        int count = Math.min(length, buffer.length - (int) (write - readPosition.get()));
+        int start = (int) (write & mask);
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(source, offset, buffer, start, first);
+        System.arraycopy(source, offset + first, buffer, 0, count - first);
+        writePosition.lazySet(write + count);
+        return count;
+    }
+
+    // Consumer only. Returns how many bytes were available, up to length.
+    public int read(byte[] target, int offset, int length) {
+        long read = readPosition.get();
+        int count = Math.min(length, (int) (writePosition.get() - read));
+        int start = (int) (read & mask);
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, target, offset, first);
+        System.arraycopy(buffer, 0, target, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    // Consumer only. Discards everything written before position.
+    public void skipTo(long position) {
+        long read = readPosition.get();
+        if (position > read) {
+            readPosition.lazySet(Math.min(position, writePosition.get()));
+        }
+    }
+}
+
+// Linear crossfade over interleaved little-endian 16-bit PCM. Each output sample is from + (to - from) * gain,
+// with gain rising by gainStep per frame, so a mix of two in-range samples never clips. out may alias from.
+class CrossfadeMixer {
+    public static void mix(byte[] from, byte[] to, byte[] out, int length, int channels, float startGain, float gainStep) {
+        int frameBytes = channels * 2;
+        int frames = length / frameBytes;
+        for (int frame = 0; frame < frames; frame++) {
+            float gain = Math.min(1f, startGain + frame * gainStep);
+            for (int i = frame * frameBytes, end = i + frameBytes; i < end; i += 2) {
+                int a = (short) ((from[i] & 0xff) | (from[i + 1] << 8));
+                int b = (short) ((to[i] & 0xff) | (to[i + 1] << 8));
+                int mixed = Math.round(a + (b - a) * gain);
+                out[i] = (byte) mixed;
+                out[i + 1] = (byte) (mixed >> 8);
+            }
+        }
+    }
+}
+
+// Plays tracks through one SourceDataLine. A decoder thread keeps a PcmRingBuffer topped up ahead of an output
+// thread that feeds the line, so a slow read or a GC pause eats into buffered audio rather than the line's.
+// Both threads copy through arrays allocated once when the line is first opened. Every track is converted to
+// FORMAT so the same line serves all of them, and position is counted from frames the line has consumed.
+// A track queued with queueNext is opened ahead of time and decoded straight after the current one into the
+// same ring, so the line sees the last frame of one and the first frame of the next back to back.
+class AudioPlaybackEngine {
+    static final AudioFormat FORMAT = new AudioFormat(44_100f, 16, 2, true, false);
+    private static final int FRAME_BYTES = FORMAT.getFrameSize();
+    private static final int CHUNK_BYTES = 4096;
+    private static final int RING_BYTES = 1 << 19;
+    private static final int LINE_BUFFER_BYTES = 1 << 14;
+    private static final int FADE_LEAD_BYTES = 2 * LINE_BUFFER_BYTES;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // A queued track plays only if it directly follows the track with generation `after`.
+    private record Track(long generation, long after, AudioInputStream stream, long startFrame,
+                         Runnable onStart, Runnable onEnd) {}
+    private record Marker(long generation, long position, Track track) {}
+
+    private static final Marker NO_MARKER = new Marker(0, 0, null);
+    // Posted as the pending track by stop() so the decoder closes what it holds and goes idle.
+    private static final Track CLEAR = new Track(0, 0, null, 0, null, null);
+
+    private final AudioResolver resolver;
+    private final Callable<SourceDataLine> lineFactory;
+    private final AtomicReference<Track> pending = new AtomicReference<>();
+    private final AtomicReference<Track> queued = new AtomicReference<>();
+    private final AtomicReference<Track> requested = new AtomicReference<>();
+    private final AtomicReference<Marker> trackEnd = new AtomicReference<>(NO_MARKER);
+    private final AtomicLong gaplessTransitions = new AtomicLong();
+    private final AtomicLong transitionUnderruns = new AtomicLong();
+    private long generation = 0;
+    private SourceDataLine line;
+    private PcmRingBuffer ring;
+    private Thread decoder;
+    private Thread output;
+    private boolean unavailable = false;
+
+    private volatile boolean playing = false;
+    private volatile boolean closed = false;
+    private volatile Marker trackStart = NO_MARKER;
+    private volatile Marker splice = NO_MARKER;
+    private volatile long outputGeneration = 0;
+    private volatile long framesWritten = 0;
+    private volatile long crossfadeFrames = 0;
+
+    AudioPlaybackEngine(AudioResolver resolver) {
+        this(resolver, () -> AudioSystem.getSourceDataLine(FORMAT));
+    }
+
+    AudioPlaybackEngine(AudioResolver resolver, Callable<SourceDataLine> lineFactory) {
+        this.resolver = resolver;
+        this.lineFactory = lineFactory;
+    }
+
+    // Starts song at positionMillis, replacing whatever was playing or queued. Returns false when the song has
+    // no playable audio or no output line can be opened; onEnd runs on the output thread after the last frame.
+    public synchronized boolean play(Song song, long positionMillis, Runnable onEnd) {
+        if (closed) {
+            return false;
+        }
+        long startFrame = positionMillis * (long) FORMAT.getFrameRate() / 1000;
+        AudioInputStream stream = open(song, startFrame);
+        if (stream == null) {
+            return false;
+        }
+        Track track = new Track(++generation, 0, stream, startFrame, null, onEnd);
+        if (!ensureStarted()) {
+            closeQuietly(track);
+            return false;
+        }
+        requested.set(track);
+        closeQuietly(queued.getAndSet(null));
+        closeQuietly(pending.getAndSet(track));
+        LockSupport.unpark(decoder);
+        resume();
+        return true;
+    }
+
+    // Opens song to follow the current track without a gap, replacing any earlier queued track. onStart runs
+    // on the output thread once the line has played up to the first frame of song.
+    public synchronized boolean queueNext(Song song, Runnable onStart, Runnable onEnd) {
+        Track current = requested.get();
+        AudioInputStream stream = current == null ? null : open(song, 0);
+        if (stream == null) {
+            closeQuietly(queued.getAndSet(null));
+            return false;
+        }
+        closeQuietly(queued.getAndSet(new Track(++generation, current.generation(), stream, 0, onStart, onEnd)));
+        LockSupport.unpark(decoder);
+        return true;
+    }
+
+    // Zero splices tracks back to back; otherwise each queued track fades in over the end of the previous one.
+    public void setCrossfade(Duration duration) {
+        crossfadeFrames = duration.toMillis() * (long) FORMAT.getFrameRate() / 1000;
+    }
+
+    public synchronized void pause() {
+        if (line != null) {
+            playing = false;
+            line.stop();
+        }
+    }
+
+    public synchronized void resume() {
+        if (line != null && requested.get() != null) {
+            line.start();
+            playing = true;
+            LockSupport.unpark(output);
+        }
+    }
+
+    public synchronized void stop() {
+        pause();
+        requested.set(null);
+        closeQuietly(queued.getAndSet(null));
+        if (line != null) {
+            closeQuietly(pending.getAndSet(CLEAR));
+            LockSupport.unpark(decoder);
+            line.flush();
+        }
+    }
+
+    public synchronized void close() {
+        stop();
+        closed = true;
+        if (line != null) {
+            decoder.interrupt();
+            output.interrupt();
+            line.close();
+        }
+    }
+
+    // Frames the line has played of the requested track, excluding frames still queued in the line.
+    public long positionMillis() {
+        Track track = requested.get();
+        if (track == null) {
+            return 0;
+        }
+        long frames = track.startFrame();
+        if (outputGeneration == track.generation()) {
+            frames += Math.max(0, framesWritten - queuedFrames());
+        }
+        return frames * 1000 / (long) FORMAT.getFrameRate();
+    }
+
+    // Queued tracks that followed the previous one without leaving the ring.
+    public long gaplessTransitions() { return gaplessTransitions.get(); }
+    // Of those, how many found the line already drained at the splice, so the listener heard a gap.
+    public long transitionUnderruns() { return transitionUnderruns.get(); }
+
+    private long queuedFrames() {
+        return (line.getBufferSize() - line.available()) / FRAME_BYTES;
+    }
+
+    private boolean ensureStarted() {
+        if (line != null || unavailable) {
+            return line != null;
+        }
+        try {
+            SourceDataLine opened = lineFactory.call();
+            opened.open(FORMAT, LINE_BUFFER_BYTES);
+            line = opened;
+        } catch (Exception e) {
+            unavailable = true;
+            System.err.println("Could not open audio output: " + e.getMessage());
+            return false;
+        }
+        ring = new PcmRingBuffer(RING_BYTES);
+        decoder = startThread("audio-decoder", this::decodeLoop);
+        output = startThread("audio-output", this::outputLoop);
+        return true;
+    }
+
+    private AudioInputStream open(Song song, long startFrame) {
+        AudioInputStream source = null;
+        try {
+            source = resolver.open(song);
+            if (source == null) {
+                return null;
+            }
+            AudioInputStream pcm = source.getFormat().matches(FORMAT) ? source : AudioSystem.getAudioInputStream(FORMAT, source);
+            long remaining = startFrame * FRAME_BYTES;
+            long skipped;
+            while (remaining > 0 && (skipped = pcm.skip(remaining)) > 0) {
+                remaining -= skipped;
+            }
+            return pcm;
+        } catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+            System.err.println("Could not open audio for " + song.id() + ": " + e.getMessage());
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+    // At the end of a track, splices in the queued follower if there is one. A follower queued after the end was
+    // decoded is still spliced at the end position, provided it wins the end marker before the output does.
+    // With a crossfade set, the follower is spliced where the outgoing track's last crossfade window begins
+    // instead, and the two are mixed until the outgoing track runs out. Only one splice is outstanding at a
+    // time, so a short follower waits for the output to reach its start before it is spliced in turn. While a
+    // crossfade waits for its follower, decoding holds back to FADE_LEAD_BYTES ahead of the output and then
+    // continues a chunk at a time, so a late follower gets a shorter fade instead of none. Every wait here is a
+    // plain park: the output thread unparks the decoder whenever it frees ring space or passes a splice, and
+    // play, queueNext and stop unpark it when they hand over work.
+    private void decodeLoop() {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        byte[] incoming = new byte[CHUNK_BYTES];
+        Track track = null;
+        Track fadingIn = null;
+        long framesLeft = 0;
+        long fadeFrames = 0;
+        long fadeDone = 0;
+        int offset = 0;
+        int length = 0;
+        while (!closed) {
+            Track next = pending.getAndSet(null);
+            if (next == CLEAR) {
+                closeQuietly(track);
+                closeQuietly(fadingIn);
+                track = null;
+                fadingIn = null;
+                offset = 0;
+                length = 0;
+            } else if (next != null) {
+                closeQuietly(track);
+                closeQuietly(fadingIn);
+                track = next;
+                fadingIn = null;
+                framesLeft = framesOf(track);
+                offset = 0;
+                length = 0;
+                trackStart = new Marker(track.generation(), ring.writePosition(), track);
+            }
+            if (track == null) {
+                track = takeLateFollower();
+                if (track == null) {
+                    LockSupport.park(this);
+                } else {
+                    framesLeft = framesOf(track);
+                }
+                continue;
+            }
+            if (offset == length) {
+                offset = 0;
+                long crossfade = crossfadeFrames;
+                boolean spliceFree = splice.generation() <= outputGeneration;
+                if (fadingIn == null && crossfade > 0 && framesLeft <= crossfade) {
+                    fadingIn = spliceFree ? takeFollower(track, ring.writePosition()) : null;
+                    fadeFrames = framesLeft;
+                    fadeDone = 0;
+                    if (fadingIn == null && ring.writePosition() - ring.readPosition() > FADE_LEAD_BYTES) {
+                        length = 0;
+                        LockSupport.park(this);
+                        continue;
+                    }
+                }
+                if (fadingIn != null) {
+                    length = readFully(track, chunk, (int) Math.min(chunk.length / FRAME_BYTES, framesLeft) * FRAME_BYTES);
+                    if (length <= 0) {
+                        closeQuietly(track);
+                        track = fadingIn;
+                        fadingIn = null;
+                        framesLeft = framesOf(track) - fadeDone;
+                        length = 0;
+                        continue;
+                    }
+                    int mixed = Math.max(0, readFully(fadingIn, incoming, length));
+                    Arrays.fill(incoming, mixed, length, (byte) 0);
+                    float gainStep = 1f / fadeFrames;
+                    CrossfadeMixer.mix(chunk, incoming, chunk, length, FORMAT.getChannels(), fadeDone * gainStep, gainStep);
+                    fadeDone += length / FRAME_BYTES;
+                    framesLeft -= length / FRAME_BYTES;
+                } else {
+                    long beforeFade = crossfade > 0 ? framesLeft - crossfade : Long.MAX_VALUE;
+                    int limit = beforeFade > 0 ? (int) Math.min(chunk.length / FRAME_BYTES, beforeFade) * FRAME_BYTES : chunk.length;
+                    length = readChunk(track, chunk, 0, limit);
+                    if (length < 0) {
+                        length = 0;
+                        if (!spliceFree) {
+                            LockSupport.park(this);
+                            continue;
+                        }
+                        closeQuietly(track);
+                        Track follower = takeFollower(track, ring.writePosition());
+                        if (follower == null) {
+                            trackEnd.set(new Marker(track.generation(), ring.writePosition(), track));
+                        }
+                        track = follower;
+                        framesLeft = follower == null ? 0 : framesOf(follower);
+                        continue;
+                    }
+                    framesLeft -= length / FRAME_BYTES;
+                }
+            }
+            int written = ring.write(chunk, offset, length - offset);
+            offset += written;
+            if (written == 0) {
+                LockSupport.park(this);
+            }
+        }
+        closeQuietly(track);
+        closeQuietly(fadingIn);
+    }
+
+    // Frames left to decode from the track's start position; unbounded when the stream does not know its length.
+    private static long framesOf(Track track) {
+        long frameLength = track.stream().getFrameLength();
+        return frameLength == AudioSystem.NOT_SPECIFIED ? Long.MAX_VALUE : Math.max(0, frameLength - track.startFrame());
+    }
+
+    private Track takeFollower(Track track, long position) {
+        Track follower = queued.get();
+        if (follower == null || follower.after() != track.generation() || !queued.compareAndSet(follower, null)) {
+            return null;
+        }
+        splice = new Marker(follower.generation(), position, follower);
+        return follower;
+    }
+
+    private Track takeLateFollower() {
+        Marker end = trackEnd.get();
+        Track follower = queued.get();
+        if (end == NO_MARKER || follower == null || follower.after() != end.generation()
+                || end.position() != ring.writePosition() || !trackEnd.compareAndSet(end, NO_MARKER)) {
+            return null;
+        }
+        if (!queued.compareAndSet(follower, null)) {
+            trackEnd.set(end);
+            return null;
+        }
+        splice = new Marker(follower.generation(), end.position(), follower);
+        return follower;
+    }
+
+    private int readFully(Track track, byte[] buffer, int length) {
+        int total = 0;
+        while (total < length) {
+            int read = readChunk(track, buffer, total, length - total);
+            if (read <= 0) {
+                break;
+            }
+            total += read;
+        }
+        return total == 0 && length > 0 ? -1 : total;
+    }
+
+    private int readChunk(Track track, byte[] buffer, int offset, int length) {
+        try {
+            return track.stream().read(buffer, offset, length);
+        } catch (IOException e) {
+            System.err.println("Could not decode audio: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Markers are published before the frames that follow them, so reading the write position before the
+    // markers guarantees no frame is read ahead of the marker that governs it. Reads stop exactly at a splice,
+    // so the follower's frames are counted from its first one; its onStart waits until the line has consumed
+    // every frame written before the splice, i.e. until the follower is audible.
+    private void outputLoop() {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        boolean ended = true;
+        long totalFrames = 0;
+        Track starting = null;
+        long startingFrame = 0;
+        while (!closed) {
+            if (!playing) {
+                LockSupport.park(this);
+                continue;
+            }
+            if (starting != null && totalFrames - queuedFrames() >= startingFrame) {
+                Runnable onStart = starting.onStart();
+                starting = null;
+                onStart.run();
+            }
+            long writePosition = ring.writePosition();
+            Marker start = trackStart;
+            if (start.generation() > outputGeneration) {
+                ring.skipTo(start.position());
+                line.flush();
+                framesWritten = 0;
+                outputGeneration = start.generation();
+                ended = false;
+                starting = null;
+            }
+            Marker boundary = splice;
+            long readPosition = ring.readPosition();
+            boolean spliceAhead = boundary.generation() > outputGeneration;
+            if (spliceAhead && readPosition == boundary.position()) {
+                Track current = requested.get();
+                if (current != null && current.generation() == boundary.track().after()
+                        && requested.compareAndSet(current, boundary.track())) {
+                    gaplessTransitions.incrementAndGet();
+                    if (line.available() == line.getBufferSize()) {
+                        transitionUnderruns.incrementAndGet();
+                    }
+                    starting = boundary.track();
+                    startingFrame = totalFrames;
+                }
+                framesWritten = 0;
+                outputGeneration = boundary.generation();
+                ended = false;
+                LockSupport.unpark(decoder);
+                continue;
+            }
+            long readable = (spliceAhead ? Math.min(writePosition, boundary.position()) : writePosition) - readPosition;
+            int read = ring.read(chunk, 0, (int) Math.max(0, Math.min(chunk.length, readable)));
+            if (read > 0) {
+                LockSupport.unpark(decoder);
+                line.write(chunk, 0, read);
+                framesWritten += read / FRAME_BYTES;
+                totalFrames += read / FRAME_BYTES;
+                continue;
+            }
+            Marker end = trackEnd.get();
+            if (!ended && starting == null && end.generation() == outputGeneration
+                    && line.available() == line.getBufferSize() && trackEnd.compareAndSet(end, NO_MARKER)) {
+                ended = true;
+                Track track = requested.get();
+                if (track != null && track.generation() == outputGeneration) {
+                    track.onEnd().run();
+                }
+                continue;
+            }
+            LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+        }
+    }
+
+    private static Thread startThread(String name, Runnable loop) {
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+        return thread;
+    }
+
+    private static void closeQuietly(Track track) {
+        if (track == null || track.stream() == null) {
+            return;
+        }
+        try {
+            track.stream().close();
+        } catch (IOException e) {
+            System.err.println("Could not close audio stream: " + e.getMessage());
+        }
+    }
+}
+
+
+// MARK: - Music Player Service (Singleton & Facade)
+
+// Columnar, append-only song store. Ids and titles are packed as UTF-8 into per-chunk byte arrays, artists are
+// dictionary encoded, and durations sit in an int column; a Song object is built only when get() asks for one.
+// Appends never move existing rows, so a view taken at an earlier size stays valid while later batches arrive.
+class SongCatalog {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final class Chunk {
+        final int[] idEnds = new int[CHUNK_SIZE];
+        final int[] titleEnds = new int[CHUNK_SIZE];
+        final int[] artistCodes = new int[CHUNK_SIZE];
+        final int[] durations = new int[CHUNK_SIZE];
+        volatile byte[] text = new byte[CHUNK_SIZE * 16];
+    }
+
+    private final Map<String, Integer> artistCodes = new HashMap<>();
+    private volatile String[] artists = new String[16];
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int size = 0;
+
+    // Extends base in place when it is the newest view of its catalog, otherwise copies base into a new catalog first.
+    public static List<Song> extend(List<Song> base, List<Song> songs) {
+        if (base instanceof View view) {
+            synchronized (view.owner) {
+                if (view.size() == view.owner.size) {
+                    return view.owner.appendAll(songs);
+                }
+            }
+        }
+        SongCatalog catalog = new SongCatalog();
+        catalog.appendAll(base);
+        return catalog.appendAll(songs);
+    }
+
+    public static boolean isExtension(List<Song> next, List<Song> previous) {
+        return next instanceof View nextView && previous instanceof View previousView
+            && nextView.owner == previousView.owner && nextView.size() >= previousView.size();
+    }
+
+    private synchronized View appendAll(List<Song> songs) {
+        Chunk[] current = chunks;
+        int row = size;
+        for (Song song : songs) {
+            int chunkIndex = row >>> CHUNK_BITS;
+            if (chunkIndex == current.length) {
+                current = Arrays.copyOf(current, chunkIndex + 1);
+                current[chunkIndex] = new Chunk();
+                chunks = current;
+            }
+            Chunk chunk = current[chunkIndex];
+            int slot = row & (CHUNK_SIZE - 1);
+            int start = slot == 0 ? 0 : chunk.titleEnds[slot - 1];
+            byte[] id = song.id().getBytes(StandardCharsets.UTF_8);
+            byte[] title = song.title().getBytes(StandardCharsets.UTF_8);
+            byte[] text = chunk.text;
+            if (start + id.length + title.length > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, start + id.length + title.length));
+            }
+            System.arraycopy(id, 0, text, start, id.length);
+            System.arraycopy(title, 0, text, start + id.length, title.length);
+            chunk.text = text;
+            chunk.idEnds[slot] = start + id.length;
+            chunk.titleEnds[slot] = start + id.length + title.length;
+            chunk.artistCodes[slot] = codeFor(song.artist());
+            chunk.durations[slot] = song.duration();
+            row++;
+        }
+        size = row;
+        return new View(this, row);
+    }
+
+    private int codeFor(String artist) {
+        Integer code = artistCodes.get(artist);
+        if (code != null) {
+            return code;
+        }
+        int next = artistCodes.size();
+        String[] table = artists;
+        if (next == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[next] = artist;
+        artists = table;
+        artistCodes.put(artist, next);
+        return next;
+    }
+
+    private Chunk chunk(int row) {
+        return chunks[row >>> CHUNK_BITS];
+    }
+
+    String idAt(int row) {
+        Chunk chunk = chunk(row);
+        int slot = row & (CHUNK_SIZE - 1);
+        int start = slot == 0 ? 0 : chunk.titleEnds[slot - 1];
+        return new String(chunk.text, start, chunk.idEnds[slot] - start, StandardCharsets.UTF_8);
+    }
+
+    String titleAt(int row) {
+        Chunk chunk = chunk(row);
+        int slot = row & (CHUNK_SIZE - 1);
+        int start = chunk.idEnds[slot];
+        return new String(chunk.text, start, chunk.titleEnds[slot] - start, StandardCharsets.UTF_8);
+    }
+
+    String artistAt(int row) {
+        return artists[chunk(row).artistCodes[row & (CHUNK_SIZE - 1)]];
+    }
+
+    int durationAt(int row) {
+        return chunk(row).durations[row & (CHUNK_SIZE - 1)];
+    }
+
+    // Fixed-size window over the catalog; the only List<Song> the player hands out for catalog-backed playlists.
+    static final class View extends AbstractList<Song> implements RandomAccess, SongColumns {
+        private final SongCatalog owner;
+        private final int size;
+
+        private View(SongCatalog owner, int size) {
+            this.owner = owner;
+            this.size = size;
+        }
+
+        @Override
+        public Song get(int index) {
+            Objects.checkIndex(index, size);
+            return new Song(owner.idAt(index), owner.titleAt(index), owner.artistAt(index), owner.durationAt(index));
+        }
+
+        @Override
+        public String titleAt(int index) {
+            Objects.checkIndex(index, size);
+            return owner.titleAt(index);
+        }
+
+        @Override
+        public String artistAt(int index) {
+            Objects.checkIndex(index, size);
+            return owner.artistAt(index);
+        }
+
+        @Override
+        public int durationAt(int index) {
+            Objects.checkIndex(index, size);
+            return owner.durationAt(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
+
+// Immutable snapshot of everything the player exposes; transitions build a new one instead of mutating fields.
+// Position is not ticked: while playing it is positionMillis plus the System.nanoTime() elapsed since anchorNanos.
+// version counts transitions, so it orders states by when they were committed.
+record PlayerState(List<Song> playlist, int currentSongIndex, PlaybackState playbackState,
+                   long positionMillis, long anchorNanos, long version) {
+    static final PlayerState EMPTY = new PlayerState(List.of(), -1, PlaybackState.STOPPED, 0, 0, 0);
+
+    Song currentSong() {
+        return currentSongIndex < 0 ? null : playlist.get(currentSongIndex);
+    }
+
+    long positionAt(long nowNanos) {
+        if (playbackState != PlaybackState.PLAYING) {
+            return positionMillis;
+        }
+        return positionMillis + TimeUnit.NANOSECONDS.toMillis(nowNanos - anchorNanos);
+    }
+
+    PlayerState withPlaylist(List<Song> songs) {
+        return new PlayerState(songs, songs.isEmpty() ? -1 : 0, PlaybackState.STOPPED, 0, 0, version + 1);
+    }
+
+    PlayerState withExtendedPlaylist(List<Song> songs) {
+        int index = currentSongIndex < 0 && !songs.isEmpty() ? 0 : currentSongIndex;
+        return new PlayerState(songs, index, playbackState, positionMillis, anchorNanos, version + 1);
+    }
+
+    PlayerState withPlaybackState(PlaybackState state, long nowNanos) {
+        return new PlayerState(playlist, currentSongIndex, state, positionAt(nowNanos), nowNanos, version + 1);
+    }
+
+    PlayerState withSongAt(int index, long nowNanos) {
+        PlaybackState state = playbackState == PlaybackState.PLAYING ? PlaybackState.PLAYING : PlaybackState.PAUSED;
+        return new PlayerState(playlist, index, state, 0, nowNanos, version + 1);
+    }
+}
+
+class MusicPlayerService implements Subject, PlayerEventSubject {
+    // Only the default session plays local audio; every other session is silent.
+    private static final MusicPlayerService INSTANCE =
+        new MusicPlayerService(new AudioPlaybackEngine(DirectoryAudioResolver.defaultDirectory()));
+    // Track ends and starts are signalled on the scheduler and audio threads, which must never block; the
+    // transitions they trigger open audio files and notify observers, so they run here in arrival order instead.
+    private static final ExecutorService TRACK_BOUNDARIES = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "playback-transitions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ObserverRegistry<Observer> observers = new ObserverRegistry<>();
+    private final Map<PlayerEventKind, ObserverRegistry<PlayerEventObserver>> eventObservers = ObserverRegistry.byKind();
+    private final AtomicReference<PlayerState> state = new AtomicReference<>(PlayerState.EMPTY);
+    private final PlaybackScheduler scheduler = PlaybackScheduler.getInstance();
+    private final Object appendLock = new Object();
+    private final AudioPlaybackEngine audio;
+
+    private WheelTimeout trackEndTimeout;
+    private WheelTimeout progressTimeout;
+    private volatile AudioTrack audioTrack;
+    private AudioTrack queuedAudioTrack;
+    private volatile boolean closed = false;
+
+    // The song the audio engine is playing or holding paused; null while playback is simulated.
+    private record AudioTrack(int index, Song song) {}
+
+    MusicPlayerService() {
+        this(new AudioPlaybackEngine(AudioResolver.SILENT));
+    }
+
+    MusicPlayerService(AudioPlaybackEngine audio) {
+        this.audio = audio;
+    }
+
+    public static MusicPlayerService getInstance() {
+        return INSTANCE;
+    }
+
+    // Returns the playlist now current, which a load passes back to appendSongs as the base of its next batch.
+    // A list of Song objects is copied into a SongCatalog first, so every playlist is columnar however it arrived.
+    public List<Song> setPlaylist(List<Song> songs) {
+        List<Song> playlist = songs instanceof SongColumns || songs.isEmpty() ? songs : SongCatalog.extend(List.of(), songs);
+        return transition(current -> current.withPlaylist(playlist)).playlist();
+    }
+
+    // Appends to base, the playlist a load installed or last extended, and returns the extended playlist. Returns
+    // null and drops the batch once base is no longer current, so a superseded load never extends another's playlist.
+    public List<Song> appendSongs(List<Song> base, List<Song> songs) {
+        synchronized (appendLock) {
+            if (state.get().playlist() != base) {
+                return null;
+            }
+            if (songs.isEmpty()) {
+                return base;
+            }
+            List<Song> extended = SongCatalog.extend(base, songs);
+            PlayerState next = transition(current -> current.playlist() == base ? current.withExtendedPlaylist(extended) : current);
+            return next.playlist() == extended ? extended : null;
+        }
+    }
+
+    public void play() {
+        long now = System.nanoTime();
+        transition(current -> current.currentSong() == null || current.playbackState() == PlaybackState.PLAYING
+            ? current
+            : current.withPlaybackState(PlaybackState.PLAYING, now));
+    }
+
+    public void pause() {
+        long now = System.nanoTime();
+        transition(current -> current.playbackState() == PlaybackState.PAUSED
+            ? current
+            : current.withPlaybackState(PlaybackState.PAUSED, now));
+    }
+
+    public void skipToNextSong() {
+        long now = System.nanoTime();
+        transition(current -> current.playlist().isEmpty()
+            ? current
+            : current.withSongAt((current.currentSongIndex() + 1) % current.playlist().size(), now));
+    }
+
+    public void returnToPreviousSong() {
+        long now = System.nanoTime();
+        transition(current -> current.playlist().isEmpty()
+            ? current
+            : current.withSongAt((current.currentSongIndex() - 1 + current.playlist().size()) % current.playlist().size(), now));
+    }
+
+    // Called on the scheduler thread. The boundary is timestamped here; the transition runs on TRACK_BOUNDARIES.
+    private void onTrackEnd(PlayerState scheduledFor) {
+        if (closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        TRACK_BOUNDARIES.execute(() -> transition(current -> current != scheduledFor
+            ? current
+            : current.withSongAt((current.currentSongIndex() + 1) % current.playlist().size(), now)));
+    }
+
+    // Called on the audio output thread once the line has played up to the first frame of a queued track.
+    private void onAudioTrackStarted(int index, Song song) {
+        long now = System.nanoTime();
+        TRACK_BOUNDARIES.execute(() -> {
+            synchronized (this) {
+                audioTrack = new AudioTrack(index, song);
+                queuedAudioTrack = null;
+            }
+            transition(current -> index < current.playlist().size() && song.equals(current.playlist().get(index))
+                ? current.withSongAt(index, now)
+                : current);
+        });
+    }
+
+    // Called on the audio output thread once the line has played the last frame of the track.
+    private void onAudioTrackEnd(int index, Song song) {
+        long now = System.nanoTime();
+        TRACK_BOUNDARIES.execute(() -> transition(current -> current.playbackState() != PlaybackState.PLAYING
+                || current.currentSongIndex() != index || !song.equals(current.currentSong())
+            ? current
+            : current.withSongAt((index + 1) % current.playlist().size(), now)));
+    }
+
+    // Re-arms only if no transition has replaced the fired timeout meanwhile; otherwise syncPlayback has already
+    // armed the next tick for the new state, and arming another would start a second chain.
+    private void onProgressTick(PlayerState scheduledFor, WheelTimeout fired) {
+        if (state.get() != scheduledFor) {
+            return;
+        }
+        publishEvent(new TimeTick(scheduledFor.version(), currentTimeOf(scheduledFor)));
+        notifyObservers();
+        synchronized (this) {
+            if (progressTimeout != fired || state.get() != scheduledFor) {
+                return;
+            }
+            progressTimeout = null;
+            armProgressTimer();
+        }
+    }
+
+    // Always syncs against the latest snapshot, so racing transitions cannot leave timers armed or audio playing
+    // for a stale one. Songs with audio end when the engine runs out of frames; the rest end on a timer. While
+    // audio plays, the next playlist entry is kept queued in the engine so it follows without a gap.
+    private synchronized void syncPlayback() {
+        cancelTimers();
+        if (closed) {
+            stopAudio();
+            return;
+        }
+        PlayerState current = state.get();
+        Song song = current.currentSong();
+        boolean audioCurrent = isAudioFor(current);
+        if (current.playbackState() != PlaybackState.PLAYING || song == null) {
+            if (audioCurrent && current.playbackState() == PlaybackState.PAUSED) {
+                audio.pause();
+            } else {
+                stopAudio();
+            }
+            return;
+        }
+        if (audioCurrent) {
+            audio.resume();
+        } else {
+            stopAudio();
+            int index = current.currentSongIndex();
+            if (audio.play(song, current.positionMillis(), () -> onAudioTrackEnd(index, song))) {
+                audioTrack = new AudioTrack(index, song);
+            }
+        }
+        if (audioTrack != null) {
+            queueNextAudio(current);
+        } else {
+            long position = current.positionAt(System.nanoTime());
+            trackEndTimeout = scheduler.schedule(song.duration() * 1000L - position, () -> onTrackEnd(current));
+        }
+        armProgressTimer();
+    }
+
+    private void queueNextAudio(PlayerState current) {
+        int index = (current.currentSongIndex() + 1) % current.playlist().size();
+        Song next = current.playlist().get(index);
+        AudioTrack queued = queuedAudioTrack;
+        if (queued != null && queued.index() == index && queued.song().equals(next)) {
+            return;
+        }
+        boolean opened = audio.queueNext(next, () -> onAudioTrackStarted(index, next), () -> onAudioTrackEnd(index, next));
+        queuedAudioTrack = opened ? new AudioTrack(index, next) : null;
+    }
+
+    private boolean isAudioFor(PlayerState current) {
+        AudioTrack track = audioTrack;
+        return track != null && track.index() == current.currentSongIndex() && track.song().equals(current.currentSong());
+    }
+
+    private void stopAudio() {
+        if (audioTrack != null) {
+            audio.stop();
+            audioTrack = null;
+            queuedAudioTrack = null;
+        }
+    }
+
+    // Audio position comes from frames played; simulated position from the clock.
+    private long positionOf(PlayerState current) {
+        return isAudioFor(current) ? audio.positionMillis() : current.positionAt(System.nanoTime());
+    }
+
+    private int currentTimeOf(PlayerState current) {
+        return (int) (positionOf(current) / 1000);
+    }
+
+    // Progress ticks exist only for observers; position itself is derived on read, so an unobserved session does no periodic work.
+    private synchronized void armProgressTimer() {
+        PlayerState current = state.get();
+        if (closed || progressTimeout != null || current.playbackState() != PlaybackState.PLAYING || !hasTimeObservers()) {
+            return;
+        }
+        long position = positionOf(current);
+        progressTimeout = scheduler.schedule(1000 - position % 1000, fired -> onProgressTick(current, fired));
+    }
+
+    private boolean hasTimeObservers() {
+        return !observers.isEmpty() || !eventObservers.get(PlayerEventKind.TIME_TICK).isEmpty();
+    }
+
+    // Stops the session for good: the state drops to STOPPED, and a transition that still arrives afterwards,
+    // from a queued track boundary or a client holding the reference, can change the state but never arms a timer
+    // or starts audio again.
+    void close() {
+        closed = true;
+        transition(current -> current.playbackState() == PlaybackState.STOPPED
+            ? current
+            : current.withPlaybackState(PlaybackState.STOPPED, System.nanoTime()));
+        synchronized (this) {
+            cancelTimers();
+            stopAudio();
+            audio.close();
+        }
+    }
+
+    synchronized void cancelTimers() {
+        if (trackEndTimeout != null) {
+            trackEndTimeout.cancel();
+            trackEndTimeout = null;
+        }
+        if (progressTimeout != null) {
+            progressTimeout.cancel();
+            progressTimeout = null;
+        }
+    }
+
+    private PlayerState transition(UnaryOperator<PlayerState> change) {
+        PlayerState previous;
+        PlayerState next;
+        do {
+            previous = state.get();
+            next = change.apply(previous);
+            if (next == previous) {
+                return previous;
+            }
+        } while (!state.compareAndSet(previous, next));
+        syncPlayback();
+        publishChanges(previous, next);
+        return next;
+    }
+
+    private void publishChanges(PlayerState previous, PlayerState next) {
+        boolean playlistExtended = SongCatalog.isExtension(next.playlist(), previous.playlist());
+        boolean playlistChanged = !playlistExtended && previous.playlist() != next.playlist();
+        boolean songChanged = playlistChanged || previous.currentSongIndex() != next.currentSongIndex();
+        boolean stateChanged = previous.playbackState() != next.playbackState();
+        if (playlistChanged) {
+            publishEvent(new PlaylistReplaced(next.version(), next.playlist()));
+        } else if (playlistExtended) {
+            publishEvent(new PlaylistExtended(next.version(), next.playlist()));
+        }
+        if (songChanged) {
+            publishEvent(new SongChanged(next.version(), next.currentSong(), next.currentSongIndex()));
+        }
+        if (stateChanged) {
+            publishEvent(new StateChanged(next.version(), next.playbackState()));
+        }
+        if (songChanged || stateChanged) {
+            publishEvent(new TimeTick(next.version(), currentTimeOf(next)));
+        }
+        notifyObservers();
+    }
 
-interface Subject {
-    void addObserver(Observer observer);
-    void removeObserver(Observer observer);
-    void notifyObservers();
+    // Applies to songs with audio; simulated playback always switches songs instantly.
+    public void setCrossfade(Duration duration) {
+        audio.setCrossfade(duration);
+    }
+
+    public PlayerState getState() { return state.get(); }
+    public Song getCurrentSong() { return state.get().currentSong(); }
+    public int getCurrentSongIndex() { return state.get().currentSongIndex(); }
+    public PlaybackState getPlaybackState() { return state.get().playbackState(); }
+    public int getCurrentTime() { return currentTimeOf(state.get()); }
+    public long getCurrentTimeMillis() { return positionOf(state.get()); }
+
+    @Override
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+        armProgressTimer();
+    }
+    @Override
+    public void removeObserver(Observer observer) { observers.remove(observer); }
+    @Override
+    public void notifyObservers() {
+        observers.forEach(Observer::update);
+    }
+
+    @Override
+    public void addEventObserver(PlayerEventObserver observer, Set<PlayerEventKind> kinds) {
+        for (PlayerEventKind kind : kinds) {
+            eventObservers.get(kind).add(observer);
+        }
+        if (kinds.contains(PlayerEventKind.TIME_TICK)) {
+            armProgressTimer();
+        }
+    }
+    @Override
+    public void removeEventObserver(PlayerEventObserver observer) {
+        for (ObserverRegistry<PlayerEventObserver> subscribers : eventObservers.values()) {
+            subscribers.remove(observer);
+        }
+    }
+    @Override
+    public void publishEvent(PlayerEvent event) {
+        eventObservers.get(event.kind()).forEach(observer -> observer.onEvent(event));
+    }
 }
 
 
-// MARK: - Music Source Strategy
+// Hosts independent player sessions keyed by id; the singleton service is registered as the default session.
+// Sessions opened here get a silent engine, so they never open an output line or look for local audio.
+class PlayerSessionManager {
+    public static final String DEFAULT_SESSION_ID = "default";
+    private static final PlayerSessionManager INSTANCE = new PlayerSessionManager();
 
-interface MusicSource {
-    CompletableFuture<List<Song>> loadSongs();
+    private final ConcurrentHashMap<String, MusicPlayerService> sessions = new ConcurrentHashMap<>();
+
+    private PlayerSessionManager() {
+        sessions.put(DEFAULT_SESSION_ID, MusicPlayerService.getInstance());
+    }
+
+    public static PlayerSessionManager getInstance() {
+        return INSTANCE;
+    }
+
+    public MusicPlayerService openSession(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, id -> new MusicPlayerService());
+    }
+
+    public MusicPlayerService getSession(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public boolean evictSession(String sessionId) {
+        if (DEFAULT_SESSION_ID.equals(sessionId)) {
+            throw new IllegalArgumentException("The default session cannot be evicted");
+        }
+        MusicPlayerService session = sessions.remove(sessionId);
+        if (session == null) {
+            return false;
+        }
+        session.close();
+        return true;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
 }
 
-class LocalMusicSource implements MusicSource {
-    @Override
-    public CompletableFuture<List<Song>> loadSongs() {
-        List<Song> songs = List.of(
-            new Song("local-1", "Local Song 1", "Local Artist", 180),
-            new Song("local-2", "Local Song 2", "Local Artist", 240)
-        );
-        return CompletableFuture.completedFuture(songs);
+// MARK: - Search
+
+// Growable int array; posting lists are appended in ascending row order, so they stay sorted for binary search.
+class IntList {
+    private int[] values = new int[2];
+    private int size = 0;
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int index) { return values[index]; }
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int last() { return values[size - 1]; }
+
+    public boolean contains(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
     }
 }
 
-class AudioDbMusicSource implements MusicSource {
-    private final HttpClient httpClient = HttpClient.newHttpClient();
-    private final String apiUrl = "https://www.theaudiodb.com/api/v1/json/2/mostloved.php?format=track";
+// Inverted index over the title and artist tokens of a playlist. It is built incrementally in chunks as the
+// playlist grows, and searches can run between chunks. Every query token but the last must match a term
+// exactly; the last token matches as a prefix, so partial input still finds results while the user types.
+class SongSearchIndex {
+    private static final int CHUNK_SIZE = 4096;
 
-    @Override
-    public CompletableFuture<List<Song>> loadSongs() {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .build();
+    private static final int MAX_FUZZY_ROWS = 20_000;
+
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+    private final TrigramTermIndex fuzzyTerms = new TrigramTermIndex();
+    private List<Song> playlist = List.of();
+    private int indexed = 0;
+    private volatile boolean retired = false;
 
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApply(HttpResponse::body)
-                .thenApply(this::parseSongsFromResponse);
+    public void retire() {
+        retired = true;
     }
 
-    private List<Song> parseSongsFromResponse(String jsonBody) {
-        List<Song> songs = new ArrayList<>();
-        try {
-            JSONObject json = new JSONObject(jsonBody);
-            JSONArray tracks = json.getJSONArray("loved");
-
-            for (int i = 0; i < tracks.length(); i++) {
-                JSONObject trackJson = tracks.getJSONObject(i);
-                
-                String id = trackJson.optString("idTrack", "");
-                String title = trackJson.optString("strTrack", "Unknown Title");
-                String artist = trackJson.optString("strArtist", "Unknown Artist");
-                int durationInSeconds = trackJson.optInt("intDuration", 180000) / 1000;
-
-                if (!id.isEmpty()) {
-                    songs.add(new Song(id, title, artist, durationInSeconds));
+    public void indexUpTo(List<Song> latest) {
+        while (!retired) {
+            synchronized (this) {
+                if (indexed >= latest.size()) {
+                    return;
                 }
+                playlist = latest;
+                int end = Math.min(latest.size(), indexed + CHUNK_SIZE);
+                for (int row = indexed; row < end; row++) {
+                    int songRow = row;
+                    forEachToken(titleAt(row), term -> addPosting(term, songRow));
+                    forEachToken(artistAt(row), term -> addPosting(term, songRow));
+                }
+                indexed = end;
             }
-        } catch (Exception exception) {
-            System.err.println("Could not parse JSON from TheAudioDB: " + exception.getMessage());
         }
-        return songs;
     }
-}
 
+    public synchronized int[] search(String query, int limit) {
+        List<String> terms = new ArrayList<>();
+        forEachToken(query, terms::add);
+        if (terms.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+        String prefix = terms.remove(terms.size() - 1);
 
-// MARK: - Music Player Service (Singleton & Facade)
+        List<IntList> exact = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            IntList rows = postings.get(term);
+            if (rows == null) {
+                return new int[0];
+            }
+            exact.add(rows);
+        }
+        return exact.isEmpty() ? searchPrefix(prefix, limit) : searchIntersection(exact, prefix, limit);
+    }
 
-class MusicPlayerService implements Subject {
-    private static final MusicPlayerService INSTANCE = new MusicPlayerService();
+    // Rows ranked by the summed edit distance of each query token to its closest term in the row. A token with
+    // no close term in a row adds one more than its allowed edits. Candidates come from the token whose close
+    // terms cover the fewest rows, visited nearest term first, so the scan stops once no unseen row can rank higher.
+    public synchronized int[] fuzzySearch(String query, int limit) {
+        List<String> tokens = new ArrayList<>();
+        forEachToken(query, tokens::add);
+        if (tokens.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+        List<List<TermMatch>> matches = new ArrayList<>(tokens.size());
+        int driver = -1;
+        long driverRows = Long.MAX_VALUE;
+        for (String token : tokens) {
+            List<TermMatch> tokenMatches = fuzzyTerms.match(token, maxEdits(token));
+            long rows = 0;
+            for (TermMatch match : tokenMatches) {
+                rows += postings.get(match.term()).size();
+            }
+            if (!tokenMatches.isEmpty() && rows < driverRows) {
+                driver = matches.size();
+                driverRows = rows;
+            }
+            matches.add(tokenMatches);
+        }
+        if (driver < 0) {
+            return new int[0];
+        }
 
-    private final List<Observer> observers = new ArrayList<>();
-    private List<Song> playlist = new ArrayList<>();
-    private int currentSongIndex = -1;
-    
-    private Song currentSong;
-    private PlaybackState playbackState = PlaybackState.STOPPED;
-    private int currentTimeInSeconds = 0;
-    
-    private final Timer playbackTimer;
+        // No row can score below its driver term's distance plus every other token's closest possible distance.
+        int othersFloor = 0;
+        List<byte[]> others = new ArrayList<>(tokens.size() - 1);
+        for (int token = 0; token < tokens.size(); token++) {
+            if (token != driver) {
+                List<TermMatch> tokenMatches = matches.get(token);
+                int missing = maxEdits(tokens.get(token)) + 1;
+                othersFloor += tokenMatches.isEmpty() ? missing : tokenMatches.get(0).distance();
+                others.add(distancesByRow(tokenMatches, missing));
+            }
+        }
 
-    private MusicPlayerService() {
-        this.playbackTimer = new Timer(1000, (tick) -> {
-            if (playbackState == PlaybackState.PLAYING && currentSong != null) {
-                if (currentTimeInSeconds < currentSong.duration()) {
-                    currentTimeInSeconds++;
-                } else {
-                    skipToNextSong();
+        // Score in the high half and row in the low half, so the head of the queue is the worst kept match.
+        PriorityQueue<Long> best = new PriorityQueue<>(limit, Comparator.reverseOrder());
+        BitSet seen = new BitSet(indexed);
+        int scanned = 0;
+        for (TermMatch driverTerm : matches.get(driver)) {
+            if (best.size() == limit && (best.peek() >>> 32) <= driverTerm.distance() + othersFloor) {
+                break;
+            }
+            IntList rows = postings.get(driverTerm.term());
+            for (int i = 0; i < rows.size() && scanned < MAX_FUZZY_ROWS; i++) {
+                int row = rows.get(i);
+                if (seen.get(row)) {
+                    continue;
+                }
+                seen.set(row);
+                scanned++;
+                long score = driverTerm.distance();
+                for (byte[] distances : others) {
+                    score += distances[row];
+                }
+                long ranked = score << 32 | row;
+                if (best.size() < limit) {
+                    best.add(ranked);
+                } else if (ranked < best.peek()) {
+                    best.poll();
+                    best.add(ranked);
                 }
-                notifyObservers();
             }
-        });
+        }
+        int[] results = new int[best.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            results[i] = (int) (long) best.poll();
+        }
+        return results;
     }
 
-    public static MusicPlayerService getInstance() {
-        return INSTANCE;
+    // Each row's distance to its closest matched term, written farthest term first so the closest one wins.
+    private byte[] distancesByRow(List<TermMatch> matches, int missing) {
+        byte[] distances = new byte[indexed];
+        Arrays.fill(distances, (byte) missing);
+        for (int m = matches.size() - 1; m >= 0; m--) {
+            IntList rows = postings.get(matches.get(m).term());
+            for (int i = 0; i < rows.size(); i++) {
+                distances[rows.get(i)] = (byte) matches.get(m).distance();
+            }
+        }
+        return distances;
     }
 
-    public void setPlaylist(List<Song> songs) {
-        this.playlist = songs;
-        this.currentSongIndex = songs.isEmpty() ? -1 : 0;
-        this.currentSong = songs.isEmpty() ? null : songs.get(0);
-        this.currentTimeInSeconds = 0;
-        this.playbackState = PlaybackState.STOPPED;
-        notifyObservers();
+    private static int maxEdits(String token) {
+        return token.length() <= 2 ? 0 : token.length() <= 4 ? 1 : token.length() <= 8 ? 2 : 3;
     }
 
-    public void play() {
-        if (currentSong != null) {
-            playbackState = PlaybackState.PLAYING;
-            playbackTimer.start();
-            notifyObservers();
+    private int[] searchPrefix(String prefix, int limit) {
+        Set<Integer> rows = new HashSet<>();
+        for (IntList matches : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            for (int i = 0; i < matches.size() && rows.size() < limit; i++) {
+                rows.add(matches.get(i));
+            }
+            if (rows.size() >= limit) {
+                break;
+            }
         }
+        return rows.stream().mapToInt(Integer::intValue).sorted().toArray();
     }
 
-    public void pause() {
-        playbackState = PlaybackState.PAUSED;
-        playbackTimer.stop();
-        notifyObservers();
-    }
+    // Drives from whichever side is smaller: the rows under the prefix terms, checked against every exact list,
+    // or the shortest exact list, checked against the rest and re-tokenized for the prefix.
+    private int[] searchIntersection(List<IntList> exact, String prefix, int limit) {
+        exact.sort(Comparator.comparingInt(IntList::size));
+        IntList driver = exact.get(0);
+        Collection<IntList> prefixed = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+        long prefixRows = 0;
+        for (IntList rows : prefixed) {
+            prefixRows += rows.size();
+            if (prefixRows >= driver.size()) {
+                break;
+            }
+        }
 
-    public void skipToNextSong() {
-        if (!playlist.isEmpty()) {
-            currentSongIndex = (currentSongIndex + 1) % playlist.size();
-            currentSong = playlist.get(currentSongIndex);
-            currentTimeInSeconds = 0;
-            if (playbackState != PlaybackState.PLAYING) {
-                playbackState = PlaybackState.PAUSED;
+        Set<Integer> results = new HashSet<>();
+        if (prefixRows < driver.size()) {
+            for (IntList rows : prefixed) {
+                for (int i = 0; i < rows.size() && results.size() < limit; i++) {
+                    if (containsAll(exact, 0, rows.get(i))) {
+                        results.add(rows.get(i));
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < driver.size() && results.size() < limit; i++) {
+                int row = driver.get(i);
+                if (containsAll(exact, 1, row) && hasTokenWithPrefix(row, prefix)) {
+                    results.add(row);
+                }
             }
-            notifyObservers();
         }
+        return results.stream().mapToInt(Integer::intValue).sorted().toArray();
     }
 
-    public void returnToPreviousSong() {
-        if (!playlist.isEmpty()) {
-            currentSongIndex = (currentSongIndex - 1 + playlist.size()) % playlist.size();
-            currentSong = playlist.get(currentSongIndex);
-            currentTimeInSeconds = 0;
-            if (playbackState != PlaybackState.PLAYING) {
-                playbackState = PlaybackState.PAUSED;
+    private static boolean containsAll(List<IntList> lists, int from, int row) {
+        for (int i = from; i < lists.size(); i++) {
+            if (!lists.get(i).contains(row)) {
+                return false;
             }
-            notifyObservers();
         }
+        return true;
     }
 
-    public Song getCurrentSong() { return currentSong; }
-    public PlaybackState getPlaybackState() { return playbackState; }
-    public int getCurrentTime() { return currentTimeInSeconds; }
+    private boolean hasTokenWithPrefix(int row, String prefix) {
+        boolean[] found = { false };
+        Consumer<String> check = term -> found[0] |= term.startsWith(prefix);
+        forEachToken(titleAt(row), check);
+        if (!found[0]) {
+            forEachToken(artistAt(row), check);
+        }
+        return found[0];
+    }
 
-    @Override
-    public void addObserver(Observer observer) { observers.add(observer); }
-    @Override
-    public void removeObserver(Observer observer) { observers.remove(observer); }
-    @Override
-    public void notifyObservers() {
-        for (Observer observer : observers) {
-            observer.update();
+    private void addPosting(String term, int row) {
+        IntList rows = postings.get(term);
+        if (rows == null) {
+            rows = new IntList();
+            postings.put(term, rows);
+            fuzzyTerms.add(term);
+        }
+        if (rows.isEmpty() || rows.last() != row) {
+            rows.add(row);
+        }
+    }
+
+    private String titleAt(int row) {
+        return playlist instanceof SongColumns columns ? columns.titleAt(row) : playlist.get(row).title();
+    }
+
+    private String artistAt(int row) {
+        return playlist instanceof SongColumns columns ? columns.artistAt(row) : playlist.get(row).artist();
+    }
+
+    static void forEachToken(String text, Consumer<String> action) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean tokenChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                action.accept(lower.substring(start, i));
+                start = -1;
+            }
         }
     }
 }
 
+record TermMatch(String term, int distance) {}
+
+// Trigram index over the distinct terms of a SongSearchIndex, used to find the terms within a few edits of a
+// misspelled token without comparing it against the whole dictionary. A term within d edits of the token
+// shares at least (trigrams - 3d) of its padded trigrams, so terms below that overlap are skipped before the
+// bounded edit distance is computed.
+class TrigramTermIndex {
+    private static final int MAX_MATCHES = 64;
+
+    private final List<String> terms = new ArrayList<>();
+    private final Map<String, IntList> termsByGram = new HashMap<>();
+    private int[] overlap = new int[0];
+    private int[] previousRow = new int[0];
+    private int[] currentRow = new int[0];
+
+    public void add(String term) {
+        int id = terms.size();
+        terms.add(term);
+        forEachGram(term, gram -> {
+            IntList ids = termsByGram.computeIfAbsent(gram, key -> new IntList());
+            if (ids.isEmpty() || ids.last() != id) {
+                ids.add(id);
+            }
+        });
+    }
+
+    // Closest terms first, at most MAX_MATCHES of them.
+    public List<TermMatch> match(String token, int maxEdits) {
+        Set<String> grams = new HashSet<>();
+        forEachGram(token, grams::add);
+        int required = Math.max(1, grams.size() - 3 * maxEdits);
+        if (overlap.length < terms.size()) {
+            overlap = new int[Math.max(terms.size(), overlap.length * 2)];
+        }
+
+        IntList touched = new IntList();
+        for (String gram : grams) {
+            IntList ids = termsByGram.get(gram);
+            for (int i = 0; ids != null && i < ids.size(); i++) {
+                if (overlap[ids.get(i)]++ == 0) {
+                    touched.add(ids.get(i));
+                }
+            }
+        }
+        List<TermMatch> matches = new ArrayList<>();
+        for (int i = 0; i < touched.size(); i++) {
+            int id = touched.get(i);
+            int shared = overlap[id];
+            overlap[id] = 0;
+            String term = terms.get(id);
+            if (shared < required || Math.abs(term.length() - token.length()) > maxEdits) {
+                continue;
+            }
+            int distance = editDistance(token, term, maxEdits);
+            if (distance <= maxEdits) {
+                matches.add(new TermMatch(term, distance));
+            }
+        }
+        matches.sort(Comparator.comparingInt(TermMatch::distance).thenComparing(TermMatch::term));
+        return matches.size() > MAX_MATCHES ? matches.subList(0, MAX_MATCHES) : matches;
+    }
+
+    // Levenshtein distance, giving up with limit + 1 once every cell of a row exceeds the limit.
+    private int editDistance(String a, String b, int limit) {
+        if (previousRow.length <= b.length()) {
+            previousRow = new int[b.length() + 1];
+            currentRow = new int[b.length() + 1];
+        }
+        int[] previous = previousRow;
+        int[] current = currentRow;
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static void forEachGram(String term, Consumer<String> action) {
+        String padded = "$" + term + "$";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            action.accept(padded.substring(i, i + 3));
+        }
+    }
+}
 
 // MARK: - ViewModel (MVVM)
 
-class MusicPlayerViewModel implements Observer, Subject {
+class MusicPlayerViewModel implements PlayerEventObserver, Subject, PlayerEventSubject {
+    private static final int DEFAULT_MAX_FRAMES_PER_SECOND = 60;
+
     private final MusicSource musicSource;
-    private final MusicPlayerService playerService = MusicPlayerService.getInstance();
-    private final List<Observer> observers = new ArrayList<>();
+    private final MusicPlayerService playerService;
+    private final ObserverRegistry<Observer> observers = new ObserverRegistry<>();
+    private final Map<PlayerEventKind, ObserverRegistry<PlayerEventObserver>> eventObservers = ObserverRegistry.byKind();
+    private final CoalescingEventDispatcher dispatcher;
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "playlist-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile SongSearchIndex searchIndex = new SongSearchIndex();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicReference<Flow.Subscription> activeLoad = new AtomicReference<>();
+    // Sequence of the last event delivered per kind; both playlist kinds share the PLAYLIST_REPLACED slot. EDT only.
+    private final long[] deliveredSequence = new long[PlayerEventKind.values().length];
 
+    // Written only in deliverEvent, on the EDT, like every read of them.
     private List<Song> songs = new ArrayList<>();
     private Song currentSong;
+    private int currentSongIndex = -1;
     private PlaybackState playbackState = PlaybackState.STOPPED;
     private int currentTime = 0;
 
     public MusicPlayerViewModel(MusicSource musicSource) {
+        this(musicSource, DEFAULT_MAX_FRAMES_PER_SECOND);
+    }
+
+    public MusicPlayerViewModel(MusicSource musicSource, int maxFramesPerSecond) {
+        this(musicSource, MusicPlayerService.getInstance(), maxFramesPerSecond);
+    }
+
+    public MusicPlayerViewModel(MusicSource musicSource, MusicPlayerService playerService, int maxFramesPerSecond) {
         this.musicSource = musicSource;
-        this.playerService.addObserver(this);
+        this.playerService = playerService;
+        this.dispatcher = new CoalescingEventDispatcher(maxFramesPerSecond, this::deliverEvent, this::deliverUpdate);
+        this.playerService.addEventObserver(this, EnumSet.allOf(PlayerEventKind.class));
         loadSongs();
     }
     
+    // The first batch replaces the playlist and later ones extend it. The next batch is requested only after
+    // the previous one has been applied on the EDT, so a busy UI holds back the source. Starting a load cancels
+    // the one before it; each load also carries an id and only extends the playlist it installed, so a batch of
+    // a superseded load that was already on its way is dropped rather than mixed into the new playlist.
     public void loadSongs() {
-        musicSource.loadSongs().thenAccept(loadedSongs -> {
-            SwingUtilities.invokeLater(() -> {
-                this.songs = loadedSongs;
-                playerService.setPlaylist(loadedSongs);
-                notifyObservers();
-            });
-        }).exceptionally(error -> {
-            System.err.println("Failed to load songs: " + error.getMessage());
-            return null;
+        long load = loads.incrementAndGet();
+        Flow.Subscription previous = activeLoad.getAndSet(null);
+        if (previous != null) {
+            previous.cancel();
+        }
+        musicSource.streamSongs().subscribe(new Flow.Subscriber<List<Song>>() {
+            private Flow.Subscription subscription;
+            private List<Song> playlist;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                activeLoad.set(subscription);
+                if (load != loads.get()) {
+                    subscription.cancel();
+                    return;
+                }
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(List<Song> batch) {
+                SwingUtilities.invokeLater(() -> {
+                    if (load != loads.get()) {
+                        subscription.cancel();
+                        return;
+                    }
+                    List<Song> applied = playlist == null
+                        ? playerService.setPlaylist(batch)
+                        : playerService.appendSongs(playlist, batch);
+                    if (applied == null) {
+                        subscription.cancel();
+                        return;
+                    }
+                    playlist = applied;
+                    subscription.request(1);
+                });
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                System.err.println("Failed to load songs: " + error.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+                SwingUtilities.invokeLater(() -> {
+                    if (playlist == null && load == loads.get()) {
+                        playerService.setPlaylist(List.of());
+                    }
+                });
+            }
         });
     }
 
@@ -244,15 +3302,71 @@ class MusicPlayerViewModel implements Observer, Subject {
 
     public List<Song> getSongs() { return songs; }
     public Song getCurrentSong() { return currentSong; }
+    public int getCurrentSongIndex() { return currentSongIndex; }
     public PlaybackState getPlaybackState() { return playbackState; }
     public int getCurrentTime() { return currentTime; }
 
+    // Playlist indices of songs matching query; partial while the playlist is still being indexed.
+    public int[] search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    // Playlist indices of the closest matches to a possibly misspelled query, best first.
+    public int[] fuzzySearch(String query, int limit) {
+        return searchIndex.fuzzySearch(query, limit);
+    }
+
+    // Runs on whichever thread made the transition, so it only feeds the indexer and the dispatcher.
     @Override
-    public void update() {
-        this.currentSong = playerService.getCurrentSong();
-        this.playbackState = playerService.getPlaybackState();
-        this.currentTime = playerService.getCurrentTime();
-        notifyObservers();
+    public void onEvent(PlayerEvent event) {
+        if (event instanceof PlaylistReplaced replaced) {
+            searchIndex.retire();
+            searchIndex = new SongSearchIndex();
+            indexPlaylist(replaced.songs());
+        } else if (event instanceof PlaylistExtended extended) {
+            indexPlaylist(extended.songs());
+        }
+        publishEvent(event);
+    }
+
+    private void indexPlaylist(List<Song> playlist) {
+        SongSearchIndex index = searchIndex;
+        indexer.execute(() -> index.indexUpTo(playlist));
+    }
+
+    private void deliverEvent(PlayerEvent event) {
+        if (isStale(event)) {
+            return;
+        }
+        if (event instanceof PlaylistReplaced replaced) {
+            this.songs = replaced.songs();
+        } else if (event instanceof PlaylistExtended extended) {
+            this.songs = extended.songs();
+        } else if (event instanceof SongChanged changed) {
+            this.currentSong = changed.song();
+            this.currentSongIndex = changed.index();
+        } else if (event instanceof StateChanged changed) {
+            this.playbackState = changed.state();
+        } else if (event instanceof TimeTick tick) {
+            this.currentTime = tick.currentTime();
+        }
+        eventObservers.get(event.kind()).forEach(observer -> observer.onEvent(event));
+    }
+
+    // An event published late by a slower thread must not overwrite what a newer one already put on screen.
+    private boolean isStale(PlayerEvent event) {
+        int slot = event.kind() == PlayerEventKind.PLAYLIST_EXTENDED
+            ? PlayerEventKind.PLAYLIST_REPLACED.ordinal()
+            : event.kind().ordinal();
+        if (event.sequence() < deliveredSequence[slot]) {
+            return true;
+        }
+        deliveredSequence[slot] = event.sequence();
+        return false;
+    }
+
+    private void deliverUpdate() {
+        observers.forEach(Observer::update);
     }
 
     @Override
@@ -261,18 +3375,98 @@ class MusicPlayerViewModel implements Observer, Subject {
     public void removeObserver(Observer observer) { observers.remove(observer); }
     @Override
     public void notifyObservers() {
-        SwingUtilities.invokeLater(() -> {
-            for (Observer observer : observers) {
-                observer.update();
+        dispatcher.requestFrame();
+    }
+
+    @Override
+    public void addEventObserver(PlayerEventObserver observer, Set<PlayerEventKind> kinds) {
+        for (PlayerEventKind kind : kinds) {
+            eventObservers.get(kind).add(observer);
+        }
+    }
+    @Override
+    public void removeEventObserver(PlayerEventObserver observer) {
+        for (ObserverRegistry<PlayerEventObserver> subscribers : eventObservers.values()) {
+            subscribers.remove(observer);
+        }
+    }
+    @Override
+    public void publishEvent(PlayerEvent event) {
+        dispatcher.submit(event);
+    }
+}
+
+// Each event carries the full value of its field, so only the latest event per kind needs to reach the EDT.
+// Latest means highest sequence, not last submitted: an older event never displaces a newer one still pending.
+class CoalescingEventDispatcher {
+    private static final PlayerEventKind[] KINDS = PlayerEventKind.values();
+
+    private final AtomicReferenceArray<PlayerEvent> pending = new AtomicReferenceArray<>(KINDS.length);
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final long frameIntervalNanos;
+    private final Consumer<PlayerEvent> eventSink;
+    private final Runnable frameSink;
+    private final Timer frameTimer;
+    private volatile long lastFrameNanos;
+
+    public CoalescingEventDispatcher(int maxFramesPerSecond, Consumer<PlayerEvent> eventSink, Runnable frameSink) {
+        if (maxFramesPerSecond <= 0) {
+            throw new IllegalArgumentException("maxFramesPerSecond must be positive: " + maxFramesPerSecond);
+        }
+        this.frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxFramesPerSecond;
+        this.eventSink = eventSink;
+        this.frameSink = frameSink;
+        this.frameTimer = new Timer(0, (tick) -> flush());
+        this.frameTimer.setRepeats(false);
+        this.lastFrameNanos = System.nanoTime() - frameIntervalNanos;
+    }
+
+    public void submit(PlayerEvent event) {
+        if (event.kind() == PlayerEventKind.PLAYLIST_REPLACED) {
+            pending.accumulateAndGet(PlayerEventKind.PLAYLIST_EXTENDED.ordinal(), event, CoalescingEventDispatcher::newerOrNull);
+        }
+        pending.accumulateAndGet(event.kind().ordinal(), event, CoalescingEventDispatcher::newer);
+        requestFrame();
+    }
+
+    private static PlayerEvent newer(PlayerEvent queued, PlayerEvent event) {
+        return queued != null && queued.sequence() > event.sequence() ? queued : event;
+    }
+
+    private static PlayerEvent newerOrNull(PlayerEvent queued, PlayerEvent event) {
+        return queued != null && queued.sequence() > event.sequence() ? queued : null;
+    }
+
+    public void requestFrame() {
+        if (!frameScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long waitNanos = lastFrameNanos + frameIntervalNanos - System.nanoTime();
+        if (waitNanos <= 0) {
+            SwingUtilities.invokeLater(this::flush);
+        } else {
+            frameTimer.setInitialDelay((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+            frameTimer.restart();
+        }
+    }
+
+    private void flush() {
+        lastFrameNanos = System.nanoTime();
+        frameScheduled.set(false);
+        for (PlayerEventKind kind : KINDS) {
+            PlayerEvent event = pending.getAndSet(kind.ordinal(), null);
+            if (event != null) {
+                eventSink.accept(event);
             }
-        });
+        }
+        frameSink.run();
     }
 }
 
 
 // MARK: - View (Swing UI)
 
-class MusicPlayerView extends JFrame implements Observer {
+class MusicPlayerView extends JFrame implements PlayerEventObserver {
     private final MusicPlayerViewModel viewModel;
 
     private final JLabel songTitleLabel = new JLabel("Loading songs...", SwingConstants.CENTER);
@@ -281,15 +3475,19 @@ class MusicPlayerView extends JFrame implements Observer {
     private final JButton playPauseButton = new JButton("Play");
     private final JButton prevButton = new JButton("Previous");
     private final JButton skipButton = new JButton("Skip");
-    private final JList<Song> playlistView = new JList<>();
+    private final PlaylistListModel playlistModel = new PlaylistListModel();
+    private final JList<String> playlistView = new JList<>(playlistModel);
 
     public MusicPlayerView(MusicPlayerViewModel viewModel) {
         this.viewModel = viewModel;
-        this.viewModel.addObserver(this);
+        this.viewModel.addEventObserver(this, EnumSet.allOf(PlayerEventKind.class));
 
         buildUI();
         connectActions();
-        update();
+        renderPlaylist(viewModel.getSongs());
+        renderSong(viewModel.getCurrentSong(), viewModel.getCurrentSongIndex());
+        renderState(viewModel.getPlaybackState());
+        progressBar.setValue(viewModel.getCurrentTime());
     }
 
     private void buildUI() {
@@ -307,6 +3505,8 @@ class MusicPlayerView extends JFrame implements Observer {
         infoPanel.add(artistLabel);
         infoPanel.add(progressBar);
 
+        // A prototype row fixes the cell width and height, so the list never measures rows it does not paint.
+        playlistView.setPrototypeCellValue("A fairly long song title here - Some artist name");
         JScrollPane scrollPane = new JScrollPane(playlistView);
         scrollPane.setBorder(BorderFactory.createTitledBorder("Playlist"));
 
@@ -333,30 +3533,103 @@ class MusicPlayerView extends JFrame implements Observer {
     }
 
     @Override
-    public void update() {
-        Song song = viewModel.getCurrentSong();
+    public void onEvent(PlayerEvent event) {
+        if (event instanceof TimeTick tick) {
+            progressBar.setValue(tick.currentTime());
+        } else if (event instanceof SongChanged changed) {
+            renderSong(changed.song(), changed.index());
+        } else if (event instanceof StateChanged changed) {
+            renderState(changed.state());
+        } else if (event instanceof PlaylistReplaced replaced) {
+            renderPlaylist(replaced.songs());
+        } else if (event instanceof PlaylistExtended extended) {
+            playlistModel.extend(extended.songs());
+        }
+    }
+
+    private void renderSong(Song song, int songIndex) {
         if (song != null) {
             songTitleLabel.setText(song.title());
             artistLabel.setText(song.artist());
             progressBar.setMaximum(song.duration());
-            progressBar.setValue(viewModel.getCurrentTime());
         } else {
             songTitleLabel.setText("Playlist loaded. Select a song.");
             artistLabel.setText("");
             progressBar.setValue(0);
         }
 
-        playPauseButton.setText(viewModel.getPlaybackState() == PlaybackState.PLAYING ? "Pause" : "Play");
+        if (song != null && songIndex >= 0 && songIndex < playlistModel.getSize()) {
+            playlistView.setSelectedIndex(songIndex);
+        }
+    }
 
-        DefaultListModel<Song> model = new DefaultListModel<>();
-        viewModel.getSongs().forEach(model::addElement);
-        playlistView.setModel(model);
-        
-        if (song != null) {
-            int songIndex = viewModel.getSongs().indexOf(song);
-            if(songIndex != -1) {
-                playlistView.setSelectedIndex(songIndex);
+    private void renderState(PlaybackState state) {
+        playPauseButton.setText(state == PlaybackState.PLAYING ? "Pause" : "Play");
+    }
+
+    private void renderPlaylist(List<Song> songs) {
+        playlistModel.sync(songs);
+    }
+}
+
+// Each element is the row's display text, read through SongColumns when the playlist is columnar, so painting
+// a row never builds a Song. The text of recently painted rows is kept in a small LRU cache keyed by row.
+class PlaylistListModel extends AbstractListModel<String> {
+    private static final int ROW_TEXT_CACHE_SIZE = 256;
+
+    private final Map<Integer, String> rowText = new LinkedHashMap<>(ROW_TEXT_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > ROW_TEXT_CACHE_SIZE;
+        }
+    };
+    private List<Song> songs = List.of();
+    private int size = 0;
+
+    public void sync(List<Song> latest) {
+        List<Song> previous = songs;
+        int previousSize = size;
+        songs = latest;
+        size = latest.size();
+
+        if (latest == previous) {
+            if (size > previousSize) {
+                fireIntervalAdded(this, previousSize, size - 1);
+            } else if (size < previousSize) {
+                rowText.clear();
+                fireIntervalRemoved(this, size, previousSize - 1);
             }
+            return;
+        }
+        rowText.clear();
+        if (previousSize > 0) {
+            fireIntervalRemoved(this, 0, previousSize - 1);
+        }
+        if (size > 0) {
+            fireIntervalAdded(this, 0, size - 1);
+        }
+    }
+
+    public void extend(List<Song> extended) {
+        int previousSize = size;
+        songs = extended;
+        size = extended.size();
+        if (size > previousSize) {
+            fireIntervalAdded(this, previousSize, size - 1);
+        }
+    }
+
+    @Override
+    public int getSize() { return size; }
+    @Override
+    public String getElementAt(int index) {
+        String text = rowText.get(index);
+        if (text == null) {
+            text = songs instanceof SongColumns columns
+                    ? columns.titleAt(index) + " - " + columns.artistAt(index)
+                    : songs.get(index).toString();
+            rowText.put(index, text);
         }
+        return text;
     }
 }